@@ -0,0 +1,214 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class AsmBuffer {
+    private byte[] bytes;
+    private int length;
+
+    /**
+     * constructor of an empty buffer
+     */
+    public AsmBuffer() {
+        this(1 << 16);
+    }
+
+    /**
+     * constructor of an empty buffer with the given initial capacity
+     *
+     * @param capacity
+     */
+    public AsmBuffer(int capacity) {
+        this.bytes = new byte[Math.max(16, capacity)];
+        this.length = 0;
+    }
+
+    /**
+     * this helper function encodes a fixed piece of assembly code once, so that it
+     * can be appended without any conversion
+     *
+     * @param code
+     * @return the ASCII bytes of the code
+     */
+    public static byte[] ascii(String code) {
+        return code.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * appends pre-encoded code
+     *
+     * @param code
+     * @return this buffer
+     */
+    public AsmBuffer append(byte[] code) {
+        ensure(code.length);
+        System.arraycopy(code, 0, bytes, length, code.length);
+        length += code.length;
+        return this;
+    }
+
+    /**
+     * appends a symbol, for example a label or a function name. the characters of
+     * a Hack symbol are all ASCII
+     *
+     * @param symbol
+     * @return this buffer
+     */
+    public AsmBuffer append(String symbol) {
+        int size = symbol.length();
+        ensure(size);
+        for (int i = 0; i < size; i++) {
+            bytes[length++] = (byte) symbol.charAt(i);
+        }
+        return this;
+    }
+
+    /**
+     * appends a single character
+     *
+     * @param c
+     * @return this buffer
+     */
+    public AsmBuffer append(char c) {
+        ensure(1);
+        bytes[length++] = (byte) c;
+        return this;
+    }
+
+    /**
+     * appends the decimal digits of a number
+     *
+     * @param value
+     * @return this buffer
+     */
+    public AsmBuffer append(int value) {
+        ensure(11);
+        if (value < 0) {
+            bytes[length++] = '-';
+            if (value == Integer.MIN_VALUE) {
+                return append("2147483648");
+            }
+            value = -value;
+        }
+        int start = length;
+        do {
+            bytes[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        // the digits were written from the last one
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte b = bytes[i];
+            bytes[i] = bytes[j];
+            bytes[j] = b;
+        }
+        return this;
+    }
+
+    /**
+     * @return the number of bytes in the buffer
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return the backing array, the code is in its first length() bytes
+     */
+    public byte[] array() {
+        return bytes;
+    }
+
+    /**
+     * this method drops the code after the given length
+     *
+     * @param newLength
+     */
+    public void truncate(int newLength) {
+        length = newLength;
+    }
+
+    /**
+     * this method counts the instructions from the given offset, skipping comment
+     * and label lines
+     *
+     * @param from
+     * @return the number of instructions
+     */
+    public int countInstructions(int from) {
+        int count = 0;
+        boolean lineStart = true;
+        for (int i = from; i < length; i++) {
+            byte b = bytes[i];
+            if (lineStart && b != '/' && b != '(' && b != '\n') {
+                count++;
+            }
+            lineStart = b == '\n';
+        }
+        return count;
+    }
+
+    /**
+     * this method counts the lines from the given offset, the last one with or
+     * without its '\n'
+     *
+     * @param from
+     * @return the number of lines
+     */
+    public int countLines(int from) {
+        int count = 0;
+        boolean lineStart = true;
+        for (int i = from; i < length; i++) {
+            if (lineStart) {
+                count++;
+            }
+            lineStart = bytes[i] == '\n';
+        }
+        return count;
+    }
+
+    /**
+     * this method counts the label lines from the given offset
+     *
+     * @param from
+     * @return the number of labels
+     */
+    public int countLabels(int from) {
+        int count = 0;
+        boolean lineStart = true;
+        for (int i = from; i < length; i++) {
+            byte b = bytes[i];
+            if (lineStart && b == '(') {
+                count++;
+            }
+            lineStart = b == '\n';
+        }
+        return count;
+    }
+
+    /**
+     * @param from
+     * @return the code from the given offset as a string
+     */
+    public String toString(int from) {
+        return new String(bytes, from, length - from, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public String toString() {
+        return toString(0);
+    }
+
+    /**
+     * @return a view of the code, ready to be written to a channel
+     */
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(bytes, 0, length);
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > bytes.length) {
+            byte[] grown = new byte[Math.max(bytes.length * 2, length + extra)];
+            System.arraycopy(bytes, 0, grown, 0, length);
+            bytes = grown;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+public class AsmLines {
+    private byte[] bytes;
+    // the offset of every line of the code, each line ends with '\n'; the offset
+    // after the last line is end
+    private int[] starts;
+    private int size;
+    private int end;
+    // a line kept aside while the end of the code is rewritten (see hold)
+    private byte[] held = new byte[64];
+    private int heldLength;
+
+    /**
+     * constructor of the lines of a piece of code, which are written over the
+     * bytes of a buffer from an offset: the code grows from there and every line
+     * that is appended is copied from further on in the same bytes, so the lines
+     * never need more room than the code they come from
+     *
+     * @param bytes
+     * @param from     - the offset of the first line
+     * @param capacity - the number of lines expected
+     */
+    public AsmLines(byte[] bytes, int from, int capacity) {
+        this.bytes = bytes;
+        this.starts = new int[Math.max(16, capacity + 1)];
+        this.size = 0;
+        this.end = from;
+    }
+
+    /**
+     * @return the number of lines
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the offset after the last line
+     */
+    public int end() {
+        return end;
+    }
+
+    /**
+     * appends a line that is already in the bytes, at an offset not before the
+     * end of the code
+     *
+     * @param from   - the offset of the line
+     * @param length - its length, without the '\n'
+     */
+    public void appendFrom(int from, int length) {
+        System.arraycopy(bytes, from, bytes, end, length);
+        push(length);
+    }
+
+    /**
+     * appends a line
+     *
+     * @param line - the ASCII bytes of the line, without the '\n'
+     */
+    public void append(byte[] line) {
+        System.arraycopy(line, 0, bytes, end, line.length);
+        push(line.length);
+    }
+
+    /**
+     * appends an A-instruction with a number, "@value"
+     *
+     * @param value - not negative
+     */
+    public void appendAddress(int value) {
+        int at = end;
+        bytes[at++] = '@';
+        int digits = 1;
+        for (int rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = at + digits - 1; i >= at; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        push(1 + digits);
+    }
+
+    /**
+     * this method keeps a copy of a line aside, so that it can be appended again
+     * after the lines from it to the end are removed
+     *
+     * @param line
+     */
+    public void hold(int line) {
+        heldLength = length(line);
+        if (heldLength > held.length) {
+            held = new byte[heldLength * 2];
+        }
+        System.arraycopy(bytes, starts[line], held, 0, heldLength);
+    }
+
+    /**
+     * appends the line kept aside by hold
+     */
+    public void appendHeld() {
+        System.arraycopy(held, 0, bytes, end, heldLength);
+        push(heldLength);
+    }
+
+    private void push(int length) {
+        if (size + 1 == starts.length) {
+            int[] grown = new int[starts.length * 2];
+            System.arraycopy(starts, 0, grown, 0, size + 1);
+            starts = grown;
+        }
+        starts[size++] = end;
+        end += length;
+        bytes[end++] = '\n';
+    }
+
+    /**
+     * removes the last lines
+     *
+     * @param count
+     */
+    public void removeTail(int count) {
+        size -= count;
+        end = starts[size];
+    }
+
+    /**
+     * removes lines, the lines after them move up
+     *
+     * @param line  - the first line to remove
+     * @param count
+     */
+    public void remove(int line, int count) {
+        int from = starts[line + count];
+        int shift = from - starts[line];
+        System.arraycopy(bytes, from, bytes, starts[line], end - from);
+        for (int i = line; i + count < size; i++) {
+            starts[i] = starts[i + count] - shift;
+        }
+        size -= count;
+        end -= shift;
+    }
+
+    /**
+     * @param line
+     * @return the length of a line, without the '\n'
+     */
+    public int length(int line) {
+        return (line + 1 < size ? starts[line + 1] : end) - 1 - starts[line];
+    }
+
+    /**
+     * @param line
+     * @param index
+     * @return a character of a line
+     */
+    public byte charAt(int line, int index) {
+        return bytes[starts[line] + index];
+    }
+
+    /**
+     * @param line
+     * @param text - ASCII bytes
+     * @return true if the line is the text
+     */
+    public boolean is(int line, byte[] text) {
+        return length(line) == text.length && matches(starts[line], text, 0, text.length);
+    }
+
+    /**
+     * @param pattern - the ASCII bytes of the last lines
+     * @return true if the code ends with the lines
+     */
+    public boolean endsWith(byte[][] pattern) {
+        int offset = size - pattern.length;
+        if (offset < 0) {
+            return false;
+        }
+        for (int i = 0; i < pattern.length; i++) {
+            if (!is(offset + i, pattern[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param a
+     * @param b
+     * @return true if two lines are the same
+     */
+    public boolean same(int a, int b) {
+        int length = length(a);
+        if (length != length(b)) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[starts[a] + i] != bytes[starts[b] + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param line
+     * @param text   - ASCII bytes
+     * @param from   - the offset of the text to compare with
+     * @param length
+     * @return true if the line is the given part of the text
+     */
+    public boolean is(int line, byte[] text, int from, int length) {
+        return length(line) == length && matches(starts[line], text, from, length);
+    }
+
+    /**
+     * this method copies the bytes of a line
+     *
+     * @param line
+     * @param to     - the array the line is copied to
+     * @param offset - the offset in the array
+     * @return the length of the line
+     */
+    public int copy(int line, byte[] to, int offset) {
+        int length = length(line);
+        System.arraycopy(bytes, starts[line], to, offset, length);
+        return length;
+    }
+
+    /**
+     * @param line
+     * @param c
+     * @return the index of the first occurrence of a character in a line, or -1
+     */
+    public int indexOf(int line, char c) {
+        int start = starts[line];
+        int length = length(line);
+        for (int i = 0; i < length; i++) {
+            if (bytes[start + i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param line
+     * @param c
+     * @param from - the first index to look at
+     * @param to   - the index after the last one
+     * @return true if the character is in the given part of a line
+     */
+    public boolean contains(int line, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[starts[line] + i] == c) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matches(int at, byte[] text, int from, int length) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[at + i] != text[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
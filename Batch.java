@@ -0,0 +1,209 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class Batch {
+    // the slowest programs listed in the summary
+    private static final int SLOWEST = 5;
+
+    /**
+     * this function translates many programs in one jvm: the programs listed in a
+     * manifest (one per line, a path and its own options; blank lines and lines
+     * that start with '#' are skipped, relative paths are resolved against the
+     * directory of the manifest), or every directory of vm files under a root
+     * directory. the other arguments are options for every program.
+     * the programs run on a pool of -j threads (default: the number of cores),
+     * each translated by one thread, and a program that fails does not stop the
+     * others. the diagnostics of every program are printed when it is done, then
+     * a summary.
+     * usage: java Main [options] [-j n] -batch <manifest | root directory>
+     *
+     * @param args
+     * @param dir  - the directory relative paths are resolved against, null for
+     *             the working directory
+     * @param out  - where the diagnostics are printed
+     * @return 0 if every program was translated, 1 otherwise
+     */
+    public static int run(String[] args, File dir, PrintStream out) {
+        String source = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> common = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-batch") && i + 1 < args.length) {
+                    source = args[++i];
+                } else if (args[i].equals("-j") && i + 1 < args.length) {
+                    threads = Integer.parseInt(args[++i]);
+                } else {
+                    common.add(args[i]);
+                }
+            }
+        } catch (NumberFormatException e) {
+            out.println("Error: Invalid value for option -j: " + e.getMessage());
+            return 1;
+        }
+        if (source == null) {
+            out.println("Error: Missing value for option: -batch");
+            return 1;
+        }
+        if (threads < 1) {
+            out.println("Error: -j needs at least one thread");
+            return 1;
+        }
+        File input = new File(source);
+        if (dir != null && !input.isAbsolute()) {
+            input = new File(dir, source);
+        }
+
+        // the arguments of every program, and the directory they are resolved in
+        List<String[]> programs = new ArrayList<>();
+        File base;
+        try {
+            if (input.isDirectory()) {
+                base = null;
+                for (File program : programDirectories(input)) {
+                    programs.add(new String[] { program.getPath() });
+                }
+            } else if (input.isFile()) {
+                base = input.getAbsoluteFile().getParentFile();
+                for (String line : Files.readAllLines(input.toPath(), StandardCharsets.UTF_8)) {
+                    line = line.trim();
+                    if (!line.isEmpty() && !line.startsWith("#")) {
+                        programs.add(line.split("\\s+"));
+                    }
+                }
+            } else {
+                out.println("Error: manifest or directory not found: " + source);
+                return 1;
+            }
+        } catch (IOException e) {
+            out.println("Error: cannot read " + source + ": " + e.getMessage());
+            return 1;
+        }
+        if (programs.isEmpty()) {
+            out.println("Error: No programs in " + source);
+            return 1;
+        }
+
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, programs.size()));
+        List<Future<long[]>> results = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        try {
+            for (String[] program : programs) {
+                // one thread per program: the programs are the parallelism
+                List<String> programArgs = new ArrayList<>(List.of("-j", "1"));
+                programArgs.addAll(common);
+                programArgs.addAll(Arrays.asList(program).subList(1, program.length));
+                programArgs.add(program[0]);
+                String name = program[0];
+                names.add(name);
+                results.add(pool.submit(() -> translate(name, programArgs.toArray(new String[0]), base, out)));
+            }
+            List<String> failed = new ArrayList<>();
+            List<long[]> times = new ArrayList<>();
+            long busy = 0;
+            for (int i = 0; i < results.size(); i++) {
+                long[] result;
+                try {
+                    result = results.get(i).get();
+                } catch (ExecutionException e) {
+                    result = new long[] { 1, 0 };
+                }
+                if (result[0] != 0) {
+                    failed.add(names.get(i));
+                }
+                busy += result[1];
+                times.add(new long[] { i, result[1] });
+            }
+            long wall = System.nanoTime() - start;
+
+            out.println("Batch: " + programs.size() + " programs, " + (programs.size() - failed.size())
+                    + " translated, " + failed.size() + " failed");
+            out.println(String.format("Batch: %.1f ms wall, %.1f ms in programs, %d threads, %.1f programs/s",
+                    wall / 1e6, busy / 1e6, Math.min(threads, programs.size()),
+                    programs.size() / Math.max(wall / 1e9, 1e-9)));
+            times.sort((a, b) -> Long.compare(b[1], a[1]));
+            for (int i = 0; i < Math.min(SLOWEST, times.size()); i++) {
+                out.println(String.format("  %10.1f ms  %s", times.get(i)[1] / 1e6, names.get((int) times.get(i)[0])));
+            }
+            for (String name : failed) {
+                out.println("  failed " + name);
+            }
+            return failed.isEmpty() ? 0 : 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            out.println("Error: the batch was interrupted");
+            return 1;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * this helper function translates one program of the batch with its own
+     * options, passes and statistics, and prints its diagnostics in one block.
+     * anything it throws fails only this program
+     *
+     * @param name - the program as it was listed
+     * @param args - its arguments
+     * @param base - the directory its relative paths are resolved against
+     * @param out  - where the diagnostics are printed
+     * @return the status and the time in nanoseconds
+     */
+    private static long[] translate(String name, String[] args, File base, PrintStream out) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream diagnostics = new PrintStream(buffer, true);
+        long start = System.nanoTime();
+        int status;
+        try {
+            status = Main.run(args, base, diagnostics);
+        } catch (RuntimeException | StackOverflowError e) {
+            diagnostics.println("Error: " + e);
+            status = 1;
+        }
+        long elapsed = System.nanoTime() - start;
+        String lines = buffer.toString().lines().map(line -> "  " + line).collect(Collectors.joining("\n"));
+        synchronized (out) {
+            out.println(String.format("%s: %s (%.1f ms)", name, status == 0 ? "ok" : "failed", elapsed / 1e6));
+            if (!lines.isEmpty()) {
+                out.println(lines);
+            }
+        }
+        return new long[] { status, elapsed };
+    }
+
+    /**
+     * this helper function finds the directories of vm files under a root, in
+     * path order
+     *
+     * @param root
+     * @return every directory with at least one vm file, the root included
+     * @throws IOException
+     */
+    private static List<File> programDirectories(File root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root.toPath())) {
+            return paths.filter(Files::isDirectory)
+                    .filter(path -> {
+                        File[] vmFiles = path.toFile().listFiles((parent, name) -> name.toLowerCase().endsWith(".vm"));
+                        return vmFiles != null && vmFiles.length > 0;
+                    })
+                    .sorted()
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,161 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Benchmark {
+    // the translator options every program is measured with
+    private static final String[] CONFIGS = { "", "-shared-calls -shared-compare", "-tos", "-pass inline",
+            "-pass tail-calls", "-O2", "-Os" };
+    public static final long DEFAULT_BUDGET = 50_000_000L;
+
+    /**
+     * this function translates every program of the benchmark directory (one
+     * sub-directory of vm files per program) with every configuration, runs it on
+     * the emulator and compares the ROM size, the cycles and the checksum of the
+     * heap against the stored baseline. a program that is bigger or slower than
+     * its baseline, computes a different result or does not halt fails the run.
+     * usage: java Benchmark [-update] [-budget cycles] [directory]
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        File dir = new File("benchmarks");
+        boolean update = false;
+        long budget = DEFAULT_BUDGET;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-update")) {
+                update = true;
+            } else if (args[i].equals("-budget") && i + 1 < args.length) {
+                budget = Long.parseLong(args[++i]);
+            } else {
+                dir = new File(args[i]);
+            }
+        }
+        File[] programs = dir.listFiles(File::isDirectory);
+        if (programs == null || programs.length == 0) {
+            System.out.println("Error: No benchmark programs in " + dir);
+            System.exit(2);
+        }
+        Arrays.sort(programs, Comparator.comparing(File::getName));
+        File baselineFile = new File(dir, "baseline.txt");
+
+        try {
+            Map<String, long[]> baseline = readBaseline(baselineFile);
+            Map<String, long[]> results = new LinkedHashMap<>();
+            int failures = 0;
+            for (File program : programs) {
+                for (String config : CONFIGS) {
+                    String key = program.getName() + "\t" + config;
+                    long[] result = measure(program, config, budget);
+                    results.put(key, result);
+                    String problem = compare(result, baseline.get(key));
+                    if (problem != null && !update) {
+                        failures++;
+                    }
+                    System.out.println(String.format("%-12s %-30s ROM %6d  cycles %10d  checksum %08x  %s",
+                            program.getName(), config.isEmpty() ? "(default)" : config, result[0], result[1],
+                            result[2], problem == null ? "ok" : problem));
+                }
+            }
+            if (update) {
+                writeBaseline(baselineFile, results);
+                System.out.println("Baseline written to " + baselineFile);
+            } else if (failures > 0) {
+                System.out.println(failures + " benchmark(s) failed");
+                System.exit(1);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    /**
+     * this function translates a program and runs it
+     *
+     * @param program - a directory of vm files
+     * @param config  - the options of the translator
+     * @param budget  - the maximal number of cycles
+     * @return ROM size, cycles, heap checksum and the status of the cpu
+     * @throws IOException
+     */
+    public static long[] measure(File program, String config, long budget) throws IOException {
+        Options options = Options.parse(config.isEmpty() ? new String[0] : config.split(" "));
+        PassManager passes = new PassManager();
+        passes.validate(options);
+        HackCPU cpu = new HackCPU(HackAssembler.assemble(Main.compile(program, options, passes, new Stats())));
+        int status = cpu.run(budget);
+        return new long[] { cpu.getRomSize(), cpu.getCycles(),
+                cpu.checksum(HackCPU.HEAP_BASE, HackCPU.HEAP_END) & 0xffffffffL, status };
+    }
+
+    /**
+     * @param result
+     * @param baseline - null if the program has no baseline yet
+     * @return what is wrong with the result, or null
+     */
+    private static String compare(long[] result, long[] baseline) {
+        if (result[3] != HackCPU.HALTED) {
+            return "FAIL: " + HackCPU.statusName((int) result[3]);
+        }
+        if (baseline == null) {
+            return "new";
+        }
+        List<String> problems = new ArrayList<>();
+        if (result[2] != baseline[2]) {
+            problems.add("wrong result");
+        }
+        if (result[0] > baseline[0]) {
+            problems.add("ROM +" + (result[0] - baseline[0]));
+        }
+        if (result[1] > baseline[1]) {
+            problems.add("cycles +" + (result[1] - baseline[1]));
+        }
+        if (problems.isEmpty()) {
+            return null;
+        }
+        return "FAIL: " + String.join(", ", problems);
+    }
+
+    /**
+     * @param file - lines of program, config, ROM, cycles and checksum separated by
+     *             tabs
+     * @return the baseline of every program and config
+     * @throws IOException
+     */
+    private static Map<String, long[]> readBaseline(File file) throws IOException {
+        Map<String, long[]> baseline = new LinkedHashMap<>();
+        if (!file.exists()) {
+            return baseline;
+        }
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            if (fields.length != 5) {
+                throw new IllegalArgumentException("Invalid baseline line: " + line);
+            }
+            baseline.put(fields[0] + "\t" + fields[1], new long[] { Long.parseLong(fields[2]),
+                    Long.parseLong(fields[3]), Long.parseLong(fields[4], 16) });
+        }
+        return baseline;
+    }
+
+    private static void writeBaseline(File file, Map<String, long[]> results) throws IOException {
+        StringBuilder text = new StringBuilder("# program\tconfig\tROM\tcycles\theap checksum\n");
+        for (Map.Entry<String, long[]> result : results.entrySet()) {
+            long[] value = result.getValue();
+            text.append(result.getKey()).append('\t').append(value[0]).append('\t').append(value[1]).append('\t')
+                    .append(Long.toHexString(value[2])).append('\n');
+        }
+        Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
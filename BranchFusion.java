@@ -0,0 +1,42 @@
+public class BranchFusion implements Pass {
+
+    public String name() {
+        return "branch-fusion";
+    }
+
+    public boolean wholeProgram() {
+        return false;
+    }
+
+    /**
+     * this method replaces every eq/gt/lt that is followed by if-goto (possibly
+     * through a not) with one COMPARE_IF, which is lowered into a single
+     * conditional jump instead of pushing a boolean and testing it
+     *
+     * @param program
+     */
+    public void run(Program program) {
+        for (IR unit : program.getUnits()) {
+            boolean changed = false;
+            for (int i = 0; i + 1 < unit.size(); i++) {
+                if (!unit.isComparison(i)) {
+                    continue;
+                }
+                boolean negate = unit.op(i + 1) == IR.ARITHMETIC && unit.arg(i + 1) == IR.NOT;
+                int branch = negate ? i + 2 : i + 1;
+                if (branch >= unit.size() || unit.op(branch) != IR.IF) {
+                    continue;
+                }
+                unit.set(i, IR.COMPARE_IF, unit.arg(i), negate ? 1 : 0, unit.symbol(branch));
+                for (int j = i + 1; j <= branch; j++) {
+                    unit.remove(j);
+                }
+                i = branch;
+                changed = true;
+            }
+            if (changed) {
+                unit.compact();
+            }
+        }
+    }
+}
@@ -1,525 +1,1181 @@
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.util.Arrays;
-import java.util.List;
-
-public class CodeWriter {
-
-    private BufferedWriter writer;
-    private int arthJumpFlag;
-    private int retAddrFlag;
-    private String push_sp;
-    private String fileName;
-
-    /**
-     * constructor of the codeWriter. opens an output file / stream and gets ready
-     * to
-     * write into it
-     * 
-     * @param outputfile / stream
-     */
-    public CodeWriter(File outputFile, File vmFile) {
-        try {
-            // Create a FileWriter that writes to the specified file
-            FileWriter fileWriter = new FileWriter(outputFile, true);
-            arthJumpFlag = 0;
-            retAddrFlag = 0;
-            push_sp = "@SP\nA=M\nM=D\n//SP++\n@SP\nM=M+1\n";
-            String fullFileName = vmFile.getName();
-            int fileNameExtensionIndex = fullFileName.lastIndexOf(".");
-            fileName = fullFileName.substring(0, fileNameExtensionIndex);
-
-            // Wrap the FileWriter in a BufferedWriter for efficient writing
-            writer = new BufferedWriter(fileWriter);
-        } catch (IOException e) {
-            // Handle the exception (e.g., print an error message or throw a custom
-            // exception)
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * this method writes the first lines of the file which initializes the
-     * operating system
-     */
-    public void WriteBootstrap() {
-        // SP = 256
-        String line = "@256\nD=A\n@SP\nM=D\n";
-        try {
-            writer.write(line);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        // call sys.init
-        WriteCall("Sys.init", 0);
-    }
-
-    /**
-     * this method writes to the output file the assembly code
-     * that implements the given arithmetic-logical command.
-     * 
-     * @param command
-     */
-    public void WriteArithmetic(String command) {
-        List<String> validCommands = Arrays.asList("add", "sub", "not", "and", "or", "neg", "eq", "lt", "gt");
-        if (!validCommands.contains(command)) {
-            throw new IllegalArgumentException("Call writeArithmetic() for a non-arithmetic command");
-        }
-        StringBuilder line = new StringBuilder();
-        line.append("@SP\n");
-        if (command.equals("neg")) {
-            line.append("A=M-1\n");
-            line.append("D=0\n");
-            line.append("M=D-M\n");
-        } else if (command.equals("not")) {
-            line.append("A=M-1\n");
-            line.append("M=!M\n");
-        } else {
-            line.append("AM=M-1\n");
-            line.append("D=M\n");
-            line.append("A=A-1\n");
-            switch (command) {
-                case "add":
-                    line.append("M=M+D\n");
-                    break;
-                case "sub":
-                    line.append("M=M-D\n");
-                    break;
-                case "and":
-                    line.append("M=M&D\n");
-                    break;
-                case "or":
-                    line.append("M=M|D\n");
-                    break;
-            }
-            if ((command.equals("gt")) || (command.equals("lt")) || (command.equals("eq"))) {
-                line.append("D=M-D\n");
-                line.append("@TRUE" + arthJumpFlag + "\n");
-                switch (command) {
-                    case "gt":
-                        line.append("D;JGT\n");
-                        break;
-                    case "lt":
-                        line.append("D;JLT\n");
-                        break;
-                    case "eq":
-                        line.append("D;JEQ\n");
-                        break;
-                }
-                // if not jump then false:
-                line.append("@SP\n");
-                line.append("A=M-1\n");
-                line.append("M=0\n");// 0=FALSE
-                line.append("@CONT" + arthJumpFlag + "\n");// CONTINUE
-                line.append("0;JMP\n");// CONTINUE
-                // jumped, so true
-                line.append("(TRUE" + arthJumpFlag + ")\n");
-                line.append("@SP\n");
-                line.append("A=M-1\n");
-                line.append("M=-1\n");// -1=TRUE
-                line.append("@CONT" + arthJumpFlag + "\n");// CONTINUE
-                line.append("0;JMP\n");// CONTINUE
-                line.append("(CONT" + arthJumpFlag + ")\n");// CONTINUE
-                arthJumpFlag++;
-            }
-
-        }
-        // write line to output file:
-        try {
-            writer.write(line.toString());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-    }
-
-    /**
-     * this method writes to the output file the assembly code
-     * that implements the given push or pop command.
-     * 
-     * @param command
-     * @param segment
-     * @param index
-     */
-    public void WritePushPop(commandType command, String segment, int index) {
-        StringBuilder line = new StringBuilder();
-        String segmentPointer = segment; // changed to sement from empty string
-        switch (segment) {
-            case "local":
-                segmentPointer = "LCL";
-                break;
-            case "argument":
-                segmentPointer = "ARG";
-                break;
-            case "this":
-                segmentPointer = "THIS";
-                break;
-            case "that":
-                segmentPointer = "THAT";
-                break;
-            case "temp":
-                segmentPointer = "5";
-                break;
-            case "pointer":
-                if (index == 0) {
-                    segmentPointer = "THIS";
-                } else {
-                    segmentPointer = "THAT";
-                }
-                break;
-
-        }
-        if ((!segment.equals("constant")) && (!segment.equals("static")) && (!segment.equals("pointer"))) {
-            // addr = segmpentpointer+i
-            line.append("// D = " + segmentPointer + "+" + index + "\n"); // add a comment line: D=segmpentpointer+i
-            line.append("@" + segmentPointer + "\n"); // @segmentpointer
-            if (segment.equals("temp")) {
-                line.append("D=A\n"); // @i
-            } else {
-                line.append("D=M\n"); // @i
-            }
-
-            line.append("@" + index + "\n"); // @i
-
-            line.append("D=D+A\n"); // D=D+A
-        }
-
-        // push command
-        if (command.equals(commandType.C_PUSH)) {
-            if (segment.equals("constant")) {
-                line.append("// D = " + index + "\n"); // add a comment line D = index
-                line.append("@");// @i
-                line.append(index);
-                line.append("\n");
-                line.append("D=A\n"); // D=A
-                line.append("//RAM[SP]=D\n"); // add a comment line RAM[SP]=D
-            } else if (segment.equals("static")) {
-                line.append("@" + (fileName + "." + index) + "\n"); // @16+i
-                line.append("D=M\n"); // D=M
-            } else if (segment.equals("pointer")) {
-                line.append("@" + segmentPointer + "\n"); // @16+i
-                line.append("D=M\n"); // D=M
-            } else {
-                line.append("//RAM[SP] = RAM[D]\n"); // add a comment line: RAM[SP] = RAM[D]
-                line.append("A=D\n"); // A=D
-                line.append("D=M\n"); // D=M
-
-            }
-            // "@SP\nA=M\nM=D\n//SP++\n@SP\nM=M+1\n";
-            line.append(push_sp);
-        }
-
-        // pop command
-        if (command.equals(commandType.C_POP)) {
-            if (segment.equals("static")) {
-                line.append("@" + (fileName + "." + index) + "\n"); // @FileName.+i
-                line.append("D=A\n"); // D=M
-            } else if (segment.equals("pointer")) {
-                line.append("@" + segmentPointer + "\n"); // @pointer
-                line.append("D=A\n"); // D=M
-            }
-
-            // store the address in R13
-            line.append("//R13=D\n"); // add a comment line: R13=D
-            line.append("@R13\n"); // @R13
-            line.append("M=D\n"); // M=D
-            line.append("//SP--\n"); // add a comment line SP++
-            line.append("@SP\n"); // @SP
-            line.append("AM=M-1\n"); // AM=M-1
-            line.append("//RAM[R13] = RAM[SP]\n"); // add a comment line: RAM[R13] = RAM[SP]
-            line.append("D=M\n"); // D=M
-            line.append("@R13\n"); // @R13
-            line.append("A=M\n"); // A=M
-            line.append("M=D\n"); // M=D
-
-        }
-        // write line to output file:
-        try {
-            writer.write(line.toString());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * this methods translates the Label command and writes it into the asmFile
-     * 
-     * @param label
-     */
-    public void WriteLabel(String label) {
-        // (label)
-        String line = "(" + label + ")\n";
-        try {
-            writer.write(line);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * this methods translates the GOTO command and writes it into the asmFile
-     * 
-     * @param label
-     */
-    public void WriteGoTo(String label) {
-        // @label
-        // 0;JMP
-        StringBuilder line = new StringBuilder();
-        line.append("//goto label\n");
-        line.append("@" + label + "\n");
-        line.append("0;JMP\n");
-        // write line to output file:
-        try {
-            writer.write(line.toString());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * this methods translates the IF-GOTO command and writes it into the asmFile
-     * 
-     * @param label
-     */
-    public void WriteIf(String label) {
-        // @SP
-        // M=M-1
-        // A=M
-        // D=M
-        // @label
-        // D;JNE
-        StringBuilder line = new StringBuilder();
-        line.append("//D=RAM[SP-1]\n");
-        line.append("@SP\n");
-        line.append("M=M-1\n");
-        line.append("A=M\n");
-        line.append("D=M\n");
-        line.append("//if (D>0) goto label\n");
-        line.append("@" +  label + "\n");
-        line.append("D;JNE\n");
-        // write line to output file:
-        try {
-            writer.write(line.toString());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * this methods translates the CALL command and writes it into the asmFile
-     * 
-     * @param segment: function name
-     * @param Nargs    : number of args
-     */
-    public void WriteCall(String segment, int Nargs) {
-        StringBuilder line = new StringBuilder();
-        String retAddr = (segment + "$ret." + retAddrFlag);
-        retAddrFlag++;
-        line.append("//push " + retAddr + "\n"); // add a comment
-        line.append("@" + retAddr + "\n" + "D=A\n");
-        line.append(push_sp);
-
-        String[] addresses = { "@LCL", "@ARG", "@THIS", "@THAT" };
-
-        for (String address : addresses) {
-            line.append("//push " + address + "\n"); // add a comment
-            line.append(address + "\n");
-            line.append("D=M\n");
-            line.append(push_sp);
-        }
-
-        // ARG = SP-5-Nargs
-        line.append("// ARG = SP-5-Nargs\n");
-        String arg = "@SP\n" +
-                "D=M\n" +
-                "@5\n" +
-                "D=D-A\n" +
-                "@" + Nargs + "\n" +
-                "D=D-A\n" +
-                "@ARG\n" +
-                "M=D\n";
-        line.append(arg);
-
-        // LCL=SP
-        line.append("// LCL=SP\n");
-        String lcl = "@SP\n" +
-                "D=M\n" +
-                "@LCL\n" +
-                "M=D\n";
-        line.append(lcl);
-
-        // goto functionName
-        line.append("//goto functionName\n");
-        line.append("@" + segment + "\n");
-        line.append("0;JMP\n");
-        // write line to output file:
-        try {
-            writer.write(line.toString());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        // (retAddrLabel)
-        this.WriteLabel(retAddr);
-    }
-
-    /**
-     * this methods translates the FUNCTION command and writes it into the asmFile
-     * 
-     * @param segment: the name of the function
-     * @param Nargs    : the number of args
-     */
-    public void WriteFunction(String segment, int Nargs) {
-        // add a comment
-        String comment = "// function " + segment + " number of args: " + Nargs + "\n";
-        try {
-            writer.write(comment);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        // print label with the name of the function
-        this.WriteLabel(segment);
-        // initializes the local variables to 0;
-        StringBuilder lines = new StringBuilder();
-
-        if (Nargs > 0) {
-            lines.append("//initializes the local variables to 0\n");
-            lines.append("@LCL\n");
-            lines.append("A=M\n");
-        }
-        String push0nArgs = "M=0\nA=A+1\nD=A\n@SP\nM=M+1\nA=D\n";
-        for (int i = 0; i < Nargs; i++) {
-            lines.append(push0nArgs);
-        }
-        // write line to output file:
-        try {
-            writer.write(lines.toString());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * this methods translates the RETURN command and writes it into the asmFile
-     */
-    public void WriteReturn() {
-        // endFrame = LCL
-        // retAddr = *(endFrame-5)
-        // *ARG = pop()
-        // SP = ARG+1
-        // THAT=*(endFrame-1)
-        // THIS=*(endFrame-2)
-        // ARG=*(endFrame-3)
-        // LCL=*(endFrame-4)
-        // goto retAddr
-        StringBuilder line = new StringBuilder();
-        line.append("//return\n");
-        // endFrame (R13) = LCL
-        String command = "//endFrame=LCL\n" +
-                "@LCL\n" +
-                "D=M\n" +
-                "@R13\n" +
-                "M=D\n";
-        line.append(command);
-        // retAddr (R14) = *(endFrame-5)
-        command = "//retAddr=*(endFrame-5)\n" +
-                "@R13\n" +
-                "D=M\n" +
-                "@5\n" +
-                "D=D-A\n" +
-                "A=D\n" +
-                "D=M\n" +
-                "@R14\n" +
-                "M=D\n";
-        line.append(command);
-        // *ARG = pop()
-        command = "// *ARG=pop()\n" +
-                "@SP\n" +
-                "M=M-1\n" +
-                "A=M\n" +
-                "D=M\n" +
-                "@ARG\n" +
-                "A=M\n" +
-                "M=D\n";
-        line.append(command);
-        // SP = ARG+1
-        command = "//SP=ARG+1\n" +
-                "@ARG\n" +
-                "D=M\n" +
-                "@SP\n" +
-                "M=D+1\n";
-        line.append(command);
-        // THAT=*(endFrame-1)
-        command = "//THAT=*(endFrame-1)\n" +
-                "@R13\n" +
-                "D=M\n" +
-                "@1\n" +
-                "D=D-A\n" +
-                "A=D\n" +
-                "D=M\n" +
-                "@THAT\n" +
-                "M=D\n";
-        line.append(command);
-        // THIS=*(endFrame-2)
-        command = "//THIS=*(endFrame-2)\n" +
-                "@R13\n" +
-                "D=M\n" +
-                "@2\n" +
-                "D=D-A\n" +
-                "A=D\n" +
-                "D=M\n" +
-                "@THIS\n" +
-                "M=D\n";
-        line.append(command);
-        // ARG=*(endFrame-3)
-        command = "//ARG=*(endFrame-3)\n" +
-                "@R13\n" +
-                "D=M\n" +
-                "@3\n" +
-                "D=D-A\n" +
-                "A=D\n" +
-                "D=M\n" +
-                "@ARG\n" +
-                "M=D\n";
-        line.append(command);
-        // LCL=*(endFrame-4)
-        command = "//ARG=*(endFrame-3)\n" +
-                "@R13\n" +
-                "D=M\n" +
-                "@4\n" +
-                "D=D-A\n" +
-                "A=D\n" +
-                "D=M\n" +
-                "@LCL\n" +
-                "M=D\n";
-        line.append(command);
-        // goto retAddr
-        command = "//goto retAddr\n" +
-                "@R14\n" +
-                "A=M\n" +
-                "0;JMP\n";
-        line.append(command);
-        // write line to output file:
-        try {
-            writer.write(line.toString());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * this method closes the output file.
-     * 
-     */
-    public void close() {
-        try {
-            if (writer != null) {
-                writer.close();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-}
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CodeWriter {
+
+    // the global routine that builds the frame of a call:
+    // D = return address, R13 = callee address, R14 = nArgs
+    private static final String SHARED_CALL = "// shared call routine\n" +
+            "($$CALL)\n" +
+            "//push retAddr\n" +
+            "@SP\n" +
+            "A=M\n" +
+            "M=D\n" +
+            "//push LCL, ARG, THIS, THAT\n" +
+            "@LCL\n" +
+            "D=M\n" +
+            "@SP\n" +
+            "AM=M+1\n" +
+            "M=D\n" +
+            "@ARG\n" +
+            "D=M\n" +
+            "@SP\n" +
+            "AM=M+1\n" +
+            "M=D\n" +
+            "@THIS\n" +
+            "D=M\n" +
+            "@SP\n" +
+            "AM=M+1\n" +
+            "M=D\n" +
+            "@THAT\n" +
+            "D=M\n" +
+            "@SP\n" +
+            "AM=M+1\n" +
+            "M=D\n" +
+            "// LCL=SP\n" +
+            "@SP\n" +
+            "MD=M+1\n" +
+            "@LCL\n" +
+            "M=D\n" +
+            "// ARG = SP-5-Nargs\n" +
+            "@5\n" +
+            "D=D-A\n" +
+            "@R14\n" +
+            "D=D-M\n" +
+            "@ARG\n" +
+            "M=D\n" +
+            "//goto functionName\n" +
+            "@R13\n" +
+            "A=M\n" +
+            "0;JMP\n";
+
+    // the global routine that tears down the frame of the current function
+    private static final String SHARED_RETURN = "// shared return routine\n" +
+            "($$RETURN)\n" +
+            "//endFrame=LCL\n" +
+            "@LCL\n" +
+            "D=M\n" +
+            "@R13\n" +
+            "M=D\n" +
+            "//retAddr=*(endFrame-5)\n" +
+            "@5\n" +
+            "A=D-A\n" +
+            "D=M\n" +
+            "@R14\n" +
+            "M=D\n" +
+            "// *ARG=pop()\n" +
+            "@SP\n" +
+            "AM=M-1\n" +
+            "D=M\n" +
+            "@ARG\n" +
+            "A=M\n" +
+            "M=D\n" +
+            "//SP=ARG+1\n" +
+            "@ARG\n" +
+            "D=M+1\n" +
+            "@SP\n" +
+            "M=D\n" +
+            "//THAT, THIS, ARG, LCL = *(--endFrame)\n" +
+            "@R13\n" +
+            "AM=M-1\n" +
+            "D=M\n" +
+            "@THAT\n" +
+            "M=D\n" +
+            "@R13\n" +
+            "AM=M-1\n" +
+            "D=M\n" +
+            "@THIS\n" +
+            "M=D\n" +
+            "@R13\n" +
+            "AM=M-1\n" +
+            "D=M\n" +
+            "@ARG\n" +
+            "M=D\n" +
+            "@R13\n" +
+            "AM=M-1\n" +
+            "D=M\n" +
+            "@LCL\n" +
+            "M=D\n" +
+            "//goto retAddr\n" +
+            "@R14\n" +
+            "A=M\n" +
+            "0;JMP\n";
+
+    // the global routine that calls a function in the frame of the current one:
+    // R13 = callee address, R14 = nArgs. the new arguments are copied down to ARG
+    // and the callee starts with LCL = SP right above the frame (return address,
+    // LCL, ARG, THIS, THAT), so it returns to the caller of the current function.
+    // if the current function has as many arguments, the frame stays where it is;
+    // otherwise it is stashed above the stack and put back after the arguments
+    private static final String SHARED_TAIL_CALL = "// shared tail call routine\n" +
+            "($$TAILCALL)\n" +
+            "//if LCL-ARG-5 != nArgs goto $$TAILCALL.MOVE\n" +
+            "@LCL\n" +
+            "D=M\n" +
+            "@ARG\n" +
+            "D=D-M\n" +
+            "@5\n" +
+            "D=D-A\n" +
+            "@R14\n" +
+            "D=D-M\n" +
+            "@$$TAILCALL.MOVE\n" +
+            "D;JNE\n" +
+            "//R15=SP-nArgs, SP=ARG\n" +
+            "@SP\n" +
+            "D=M\n" +
+            "@R14\n" +
+            "D=D-M\n" +
+            "@R15\n" +
+            "M=D\n" +
+            "@ARG\n" +
+            "D=M\n" +
+            "@SP\n" +
+            "M=D\n" +
+            "//copy the arguments: RAM[SP++]=RAM[R15++], nArgs times\n" +
+            "($$TAILCALL.ARGS)\n" +
+            "@R14\n" +
+            "MD=M-1\n" +
+            "@$$TAILCALL.ENTER\n" +
+            "D;JLT\n" +
+            "@R15\n" +
+            "AM=M+1\n" +
+            "A=A-1\n" +
+            "D=M\n" +
+            "@SP\n" +
+            "AM=M+1\n" +
+            "A=A-1\n" +
+            "M=D\n" +
+            "@$$TAILCALL.ARGS\n" +
+            "0;JMP\n" +
+            "//SP=LCL, goto callee\n" +
+            "($$TAILCALL.ENTER)\n" +
+            "@LCL\n" +
+            "D=M\n" +
+            "@SP\n" +
+            "M=D\n" +
+            "@R13\n" +
+            "A=M\n" +
+            "0;JMP\n" +
+            "($$TAILCALL.MOVE)\n" +
+            "//RAM[SP+5]=callee\n" +
+            "@R13\n" +
+            "D=M\n" +
+            "@SP\n" +
+            "A=M+1\n" +
+            "A=A+1\n" +
+            "A=A+1\n" +
+            "A=A+1\n" +
+            "A=A+1\n" +
+            "M=D\n" +
+            "//RAM[SP..SP+4]=RAM[LCL-5..LCL-1]\n" +
+            stashFrameWord(5, "A=M\n") +
+            stashFrameWord(4, "A=M+1\n") +
+            stashFrameWord(3, "A=M+1\nA=A+1\n") +
+            stashFrameWord(2, "A=M+1\nA=A+1\nA=A+1\n") +
+            stashFrameWord(1, "A=M+1\nA=A+1\nA=A+1\nA=A+1\n") +
+            "//R15=SP-nArgs, R13=ARG\n" +
+            "@SP\n" +
+            "D=M\n" +
+            "@R14\n" +
+            "D=D-M\n" +
+            "@R15\n" +
+            "M=D\n" +
+            "@ARG\n" +
+            "D=M\n" +
+            "@R13\n" +
+            "M=D\n" +
+            "//copy the arguments: RAM[R13++]=RAM[R15++], nArgs times\n" +
+            "($$TAILCALL.COPY)\n" +
+            "@R14\n" +
+            "MD=M-1\n" +
+            "@$$TAILCALL.FRAME\n" +
+            "D;JLT\n" +
+            "@R15\n" +
+            "AM=M+1\n" +
+            "A=A-1\n" +
+            "D=M\n" +
+            "@R13\n" +
+            "AM=M+1\n" +
+            "A=A-1\n" +
+            "M=D\n" +
+            "@$$TAILCALL.COPY\n" +
+            "0;JMP\n" +
+            "//RAM[R13..R13+4]=RAM[SP..SP+4]\n" +
+            "($$TAILCALL.FRAME)\n" +
+            restoreFrameWord("A=M\n") +
+            restoreFrameWord("A=M+1\n") +
+            restoreFrameWord("A=M+1\nA=A+1\n") +
+            restoreFrameWord("A=M+1\nA=A+1\nA=A+1\n") +
+            restoreFrameWord("A=M+1\nA=A+1\nA=A+1\nA=A+1\n") +
+            "//R14=callee, LCL=SP=R13+5, goto callee\n" +
+            "@SP\n" +
+            "A=M+1\n" +
+            "A=A+1\n" +
+            "A=A+1\n" +
+            "A=A+1\n" +
+            "A=A+1\n" +
+            "D=M\n" +
+            "@R14\n" +
+            "M=D\n" +
+            "@R13\n" +
+            "D=M\n" +
+            "@5\n" +
+            "D=D+A\n" +
+            "@SP\n" +
+            "M=D\n" +
+            "@LCL\n" +
+            "M=D\n" +
+            "@R14\n" +
+            "A=M\n" +
+            "0;JMP\n";
+
+    // the inline return: endFrame = LCL, retAddr = *(endFrame-5), *ARG = pop(),
+    // SP = ARG+1, THAT, THIS, ARG, LCL = *(endFrame-1..4), goto retAddr
+    private static final String RETURN = "//return\n" +
+            "//endFrame=LCL\n" +
+            "@LCL\n" +
+            "D=M\n" +
+            "@R13\n" +
+            "M=D\n" +
+            "//retAddr=*(endFrame-5)\n" +
+            "@R13\n" +
+            "D=M\n" +
+            "@5\n" +
+            "D=D-A\n" +
+            "A=D\n" +
+            "D=M\n" +
+            "@R14\n" +
+            "M=D\n" +
+            "// *ARG=pop()\n" +
+            "@SP\n" +
+            "M=M-1\n" +
+            "A=M\n" +
+            "D=M\n" +
+            "@ARG\n" +
+            "A=M\n" +
+            "M=D\n" +
+            "//SP=ARG+1\n" +
+            "@ARG\n" +
+            "D=M\n" +
+            "@SP\n" +
+            "M=D+1\n" +
+            "//THAT=*(endFrame-1)\n" +
+            "@R13\n" +
+            "D=M\n" +
+            "@1\n" +
+            "D=D-A\n" +
+            "A=D\n" +
+            "D=M\n" +
+            "@THAT\n" +
+            "M=D\n" +
+            "//THIS=*(endFrame-2)\n" +
+            "@R13\n" +
+            "D=M\n" +
+            "@2\n" +
+            "D=D-A\n" +
+            "A=D\n" +
+            "D=M\n" +
+            "@THIS\n" +
+            "M=D\n" +
+            "//ARG=*(endFrame-3)\n" +
+            "@R13\n" +
+            "D=M\n" +
+            "@3\n" +
+            "D=D-A\n" +
+            "A=D\n" +
+            "D=M\n" +
+            "@ARG\n" +
+            "M=D\n" +
+            "//ARG=*(endFrame-3)\n" +
+            "@R13\n" +
+            "D=M\n" +
+            "@4\n" +
+            "D=D-A\n" +
+            "A=D\n" +
+            "D=M\n" +
+            "@LCL\n" +
+            "M=D\n" +
+            "//goto retAddr\n" +
+            "@R14\n" +
+            "A=M\n" +
+            "0;JMP\n";
+
+    // "RAM[SP] = D, SP++"
+    private static final String PUSH_SP = "@SP\nA=M\nM=D\n//SP++\n@SP\nM=M+1\n";
+
+    // the parts of the inline call around its variable parts: the return address,
+    // nArgs and the callee
+    private static final String CALL_FRAME = "//push @LCL\n@LCL\nD=M\n" + PUSH_SP +
+            "//push @ARG\n@ARG\nD=M\n" + PUSH_SP +
+            "//push @THIS\n@THIS\nD=M\n" + PUSH_SP +
+            "//push @THAT\n@THAT\nD=M\n" + PUSH_SP +
+            "// ARG = SP-5-Nargs\n@SP\nD=M\n@5\nD=D-A\n@";
+    private static final String CALL_JUMP = "\nD=D-A\n@ARG\nM=D\n" +
+            "// LCL=SP\n@SP\nD=M\n@LCL\nM=D\n" +
+            "//goto functionName\n@";
+
+    // the number of instructions of the inline and shared lowerings, and of the
+    // shared routines, for the cost model
+    static final int INLINE_CALL_SIZE = 2 + countInstructions(PUSH_SP + CALL_FRAME + CALL_JUMP) + 1;
+    static final int SHARED_CALL_SIZE = 12;
+    static final int INLINE_RETURN_SIZE = countInstructions(RETURN);
+    static final int SHARED_RETURN_SIZE = 2;
+    static final int INLINE_COMPARE_SIZE = 17;
+    static final int SHARED_COMPARE_SIZE = 6;
+    static final int CALL_ROUTINE_SIZE = countInstructions(SHARED_CALL);
+    static final int RETURN_ROUTINE_SIZE = countInstructions(SHARED_RETURN);
+    static final int COMPARE_ROUTINE_SIZE = countInstructions(sharedCompare("eq", "JEQ"));
+    // the counter of an instrumented command (see count): @c, M=M+1, D=M,
+    // @COUNTn, D;JNE, @c+1, M=M+1, all of them when the low word wraps
+    static final int COUNT_SIZE = 7;
+
+    private static final byte[] BOOTSTRAP_SP = AsmBuffer.ascii("@256\nD=A\n@SP\nM=D\n");
+    private static final byte[] SHARED_CALL_BYTES = AsmBuffer.ascii(SHARED_CALL);
+    private static final byte[] SHARED_RETURN_BYTES = AsmBuffer.ascii(SHARED_RETURN);
+    private static final byte[] SHARED_TAIL_CALL_BYTES = AsmBuffer.ascii(SHARED_TAIL_CALL);
+    private static final byte[] SHARED_EQ_BYTES = AsmBuffer.ascii(sharedCompare("eq", "JEQ"));
+    private static final byte[] SHARED_GT_BYTES = AsmBuffer.ascii(sharedCompare("gt", "JGT"));
+    private static final byte[] SHARED_LT_BYTES = AsmBuffer.ascii(sharedCompare("lt", "JLT"));
+    private static final byte[] RETURN_BYTES = AsmBuffer.ascii(RETURN);
+    private static final byte[] SHARED_RETURN_SITE = AsmBuffer.ascii("//return\n@$$RETURN\n0;JMP\n");
+    private static final byte[] PUSH_SP_BYTES = AsmBuffer.ascii(PUSH_SP);
+    private static final byte[] CALL_FRAME_BYTES = AsmBuffer.ascii(CALL_FRAME);
+    private static final byte[] CALL_JUMP_BYTES = AsmBuffer.ascii(CALL_JUMP);
+    private static final byte[] NEG = AsmBuffer.ascii("@SP\nA=M-1\nD=0\nM=D-M\n");
+    private static final byte[] NOT = AsmBuffer.ascii("@SP\nA=M-1\nM=!M\n");
+    private static final byte[] BINARY = AsmBuffer.ascii("@SP\nAM=M-1\nD=M\nA=A-1\n");
+    private static final byte[] COMPARE_FALSE = AsmBuffer.ascii("@SP\nA=M-1\nM=0\n");
+    private static final byte[] COMPARE_TRUE = AsmBuffer.ascii("@SP\nA=M-1\nM=-1\n");
+    private static final byte[] IF_POP = AsmBuffer.ascii("//D=RAM[SP-1]\n@SP\nM=M-1\nA=M\nD=M\n" +
+            "//if (D>0) goto label\n@");
+    private static final byte[] COMPARE_IF_POP = AsmBuffer.ascii("@SP\nAM=M-1\nD=M\n@SP\nAM=M-1\nD=M-D\n@");
+    private static final byte[] PUSH_ZERO = AsmBuffer.ascii("@SP\nAM=M+1\nA=A-1\nM=0\n");
+    private static final byte[] ZERO_NEXT = AsmBuffer.ascii("A=A+1\nM=0\n");
+    private static final byte[] SPILL = AsmBuffer.ascii("//RAM[SP++]=D\n@SP\nAM=M+1\nA=A-1\nM=D\n");
+    private static final byte[] POP_SECOND = AsmBuffer.ascii("@SP\nAM=M-1\n");
+    private static final byte[] D_EQUALS_A = AsmBuffer.ascii("\nD=A\n");
+    private static final byte[] JMP = AsmBuffer.ascii("\n0;JMP\n");
+
+    private AsmBuffer out;
+    // the offset in the buffer where the code of this code writer starts
+    private int start;
+    // the file the code is appended to on close, null if the caller owns the buffer
+    private File outputFile;
+    private int arthJumpFlag;
+    private int retAddrFlag;
+    private String fileName;
+    // the function whose commands are being translated, null before the first one
+    private String currentFunction;
+    private Options options;
+    private long instructionCount;
+    private long inlineInstructionCount;
+    private long unoptimizedInstructionCount;
+    // number of tail calls written, which jump to the shared tail call routine
+    private long tailCallCount;
+    // the instructions the inline lowering would have written minus the ones that
+    // were written
+    private long inlineDelta;
+    // true if the top of the stack is in D and not stored yet (with -tos): SP
+    // then points at the slot the value belongs in
+    private boolean topInD;
+    // true if the next call, return, comparison or function command takes its
+    // compact lowering (a shared routine, a loop over the locals)
+    private boolean compact;
+    // the address of the counter of the next function, call or label command,
+    // -1 if it is not counted
+    private int counter = -1;
+    // with -source-map: the offset in the buffer where the code of every command
+    // starts, and the command
+    private List<int[]> marks;
+    // with -source-map: the command every instruction of the closed code comes
+    // from, -1 for the code before the first command
+    private int[] origins;
+    private boolean closed;
+
+    /**
+     * constructor of the codeWriter. opens an output file / stream and gets ready
+     * to
+     * write into it
+     *
+     * @param outputfile / stream
+     */
+    public CodeWriter(File outputFile, File vmFile) {
+        this(outputFile, vmFile, new Options());
+    }
+
+    /**
+     * constructor of the codeWriter with the translation options. the code is
+     * appended to the output file when the code writer is closed
+     *
+     * @param outputFile
+     * @param vmFile
+     * @param options
+     */
+    public CodeWriter(File outputFile, File vmFile, Options options) {
+        this(new AsmBuffer(), vmFile, options);
+        this.outputFile = outputFile;
+    }
+
+    /**
+     * constructor of the codeWriter that writes into an in-memory buffer
+     *
+     * @param out
+     * @param vmFile  - the translated file, its name is the namespace of statics
+     *                and generated labels
+     * @param options
+     */
+    public CodeWriter(AsmBuffer out, File vmFile, Options options) {
+        this.out = out;
+        this.start = out.length();
+        this.outputFile = null;
+        arthJumpFlag = 0;
+        retAddrFlag = 0;
+        instructionCount = 0;
+        inlineInstructionCount = 0;
+        unoptimizedInstructionCount = 0;
+        inlineDelta = 0;
+        topInD = false;
+        closed = false;
+        this.options = options;
+        marks = options.sourceMap ? new ArrayList<>() : null;
+        String fullFileName = vmFile.getName();
+        int fileNameExtensionIndex = fullFileName.lastIndexOf(".");
+        fileName = fullFileName.substring(0, fileNameExtensionIndex);
+        currentFunction = null;
+    }
+
+    /**
+     * this method writes the first lines of the file which initializes the
+     * operating system
+     *
+     * @param tailCalls - true to write the $$TAILCALL routine
+     */
+    public void WriteBootstrap(boolean tailCalls) {
+        WriteBootstrap(options.sharedCalls, options.sharedCalls, options.sharedCompare, tailCalls);
+    }
+
+    /**
+     * this method writes the first lines of the file which initializes the
+     * operating system, followed by the shared routines the code uses
+     *
+     * @param sharedCalls   - true to write the $$CALL routine
+     * @param sharedReturns - true to write the $$RETURN routine
+     * @param sharedCompare - true to write the $$EQ, $$GT and $$LT routines
+     * @param tailCalls     - true to write the $$TAILCALL routine, if the code has
+     *                      a tail call
+     */
+    public void WriteBootstrap(boolean sharedCalls, boolean sharedReturns, boolean sharedCompare,
+            boolean tailCalls) {
+        // SP = 256
+        out.append(BOOTSTRAP_SP);
+        // call sys.init
+        compact = sharedCalls;
+        WriteCall("Sys.init", 0);
+        compact = false;
+        // Sys.init never returns, so the shared routines can follow the bootstrap
+        if (sharedCalls) {
+            writeRoutine(SHARED_CALL_BYTES);
+        }
+        if (sharedReturns) {
+            writeRoutine(SHARED_RETURN_BYTES);
+        }
+        if (tailCalls) {
+            // both lowerings of the calls use it, so it is not counted as shared
+            out.append(SHARED_TAIL_CALL_BYTES);
+        }
+        if (sharedCompare) {
+            writeRoutine(SHARED_EQ_BYTES);
+            writeRoutine(SHARED_GT_BYTES);
+            writeRoutine(SHARED_LT_BYTES);
+        }
+    }
+
+    /**
+     * this helper function copies a word of the frame of the current function
+     * above the stack, for the tail call routine: RAM[SP+k] = RAM[LCL-offset]
+     *
+     * @param offset - the distance of the word below LCL
+     * @param toSlot - the instructions that point A at SP+k
+     * @return the assembly code
+     */
+    private static String stashFrameWord(int offset, String toSlot) {
+        return "@LCL\nD=M\n@" + offset + "\nA=D-A\nD=M\n@SP\n" + toSlot + "M=D\n";
+    }
+
+    /**
+     * this helper function copies a stashed word of the frame back below the new
+     * locals, for the tail call routine: RAM[R13+k] = RAM[SP+k]
+     *
+     * @param toSlot - the instructions that point A at base+k, after A=M
+     * @return the assembly code
+     */
+    private static String restoreFrameWord(String toSlot) {
+        return "@SP\n" + toSlot + "D=M\n@R13\n" + toSlot + "M=D\n";
+    }
+
+    /**
+     * this helper function builds the global routine of a comparison command.
+     * the routine replaces the two topmost values of the stack with -1 (true) or 0
+     * (false) and jumps back to the return address in R15
+     *
+     * @param command - eq, gt or lt
+     * @param jump    - the jump that is taken when the comparison is true
+     * @return the assembly code of the routine
+     */
+    private static String sharedCompare(String command, String jump) {
+        String routine = "$$" + command.toUpperCase();
+        return "// shared " + command + " routine\n" +
+                "(" + routine + ")\n" +
+                "@SP\n" +
+                "AM=M-1\n" +
+                "D=M\n" +
+                "A=A-1\n" +
+                "D=M-D\n" +
+                "M=-1\n" + // -1=TRUE
+                "@" + routine + ".TRUE\n" +
+                "D;" + jump + "\n" +
+                "@SP\n" +
+                "A=M-1\n" +
+                "M=0\n" + // 0=FALSE
+                "(" + routine + ".TRUE)\n" +
+                "@R15\n" +
+                "A=M\n" +
+                "0;JMP\n";
+    }
+
+    /**
+     * this method writes to the output file the assembly code
+     * that implements the given arithmetic-logical command.
+     *
+     * @param command
+     */
+    public void WriteArithmetic(String command) {
+        if (topInD) {
+            if (writeArithmeticInD(command)) {
+                return;
+            }
+            spill();
+        }
+        switch (command) {
+            case "neg":
+                out.append(NEG);
+                return;
+            case "not":
+                out.append(NOT);
+                return;
+            case "add":
+                out.append(BINARY).append("M=M+D\n");
+                return;
+            case "sub":
+                out.append(BINARY).append("M=M-D\n");
+                return;
+            case "and":
+                out.append(BINARY).append("M=M&D\n");
+                return;
+            case "or":
+                out.append(BINARY).append("M=M|D\n");
+                return;
+            case "gt":
+            case "lt":
+            case "eq":
+                break;
+            default:
+                throw new IllegalArgumentException("Call writeArithmetic() for a non-arithmetic command");
+        }
+        if (options.sharedCompare || compact) {
+            // R15 = return address, then jump to the shared routine
+            out.append("//").append(command).append('\n');
+            out.append('@');
+            appendGenerated("CMPRET", arthJumpFlag);
+            out.append("\nD=A\n@R15\nM=D\n@$$").append(command.toUpperCase()).append(JMP);
+            out.append('(');
+            appendGenerated("CMPRET", arthJumpFlag);
+            out.append(")\n");
+            arthJumpFlag++;
+            inlineDelta += INLINE_COMPARE_SIZE - SHARED_COMPARE_SIZE;
+            return;
+        }
+        out.append(BINARY).append("D=M-D\n@");
+        appendGenerated("TRUE", arthJumpFlag);
+        switch (command) {
+            case "gt":
+                out.append("\nD;JGT\n");
+                break;
+            case "lt":
+                out.append("\nD;JLT\n");
+                break;
+            case "eq":
+                out.append("\nD;JEQ\n");
+                break;
+        }
+        // if not jump then false:
+        out.append(COMPARE_FALSE).append('@');
+        appendGenerated("CONT", arthJumpFlag);
+        out.append(JMP);
+        // jumped, so true
+        out.append('(');
+        appendGenerated("TRUE", arthJumpFlag);
+        out.append(")\n").append(COMPARE_TRUE).append('@');
+        appendGenerated("CONT", arthJumpFlag);
+        out.append(JMP).append('(');
+        appendGenerated("CONT", arthJumpFlag);
+        out.append(")\n");
+        arthJumpFlag++;
+    }
+
+    /**
+     * this helper function writes an arithmetic command on the top of the stack
+     * that is kept in D, leaving the result in D
+     *
+     * @param command
+     * @return false if the command has to work on the stack in memory (a shared
+     *         comparison)
+     */
+    private boolean writeArithmeticInD(String command) {
+        switch (command) {
+            case "neg":
+                out.append("D=-D\n");
+                return true;
+            case "not":
+                out.append("D=!D\n");
+                return true;
+            case "add":
+                out.append(POP_SECOND).append("D=D+M\n");
+                return true;
+            case "sub":
+                out.append(POP_SECOND).append("D=M-D\n");
+                return true;
+            case "and":
+                out.append(POP_SECOND).append("D=D&M\n");
+                return true;
+            case "or":
+                out.append(POP_SECOND).append("D=D|M\n");
+                return true;
+            case "gt":
+            case "lt":
+            case "eq":
+                break;
+            default:
+                throw new IllegalArgumentException("Call writeArithmetic() for a non-arithmetic command");
+        }
+        if (options.sharedCompare || compact) {
+            return false;
+        }
+        out.append(POP_SECOND).append("D=M-D\n@");
+        appendGenerated("TRUE", arthJumpFlag);
+        out.append("\nD;J").append(command.toUpperCase()).append("\nD=0\n@");
+        appendGenerated("CONT", arthJumpFlag);
+        out.append(JMP).append('(');
+        appendGenerated("TRUE", arthJumpFlag);
+        out.append(")\nD=-1\n(");
+        appendGenerated("CONT", arthJumpFlag);
+        out.append(")\n");
+        arthJumpFlag++;
+        return true;
+    }
+
+    /**
+     * this method writes to the output file the assembly code
+     * that implements the given push or pop command.
+     *
+     * @param command
+     * @param segment
+     * @param index
+     */
+    public void WritePushPop(commandType command, String segment, int index) {
+        WritePushPop(command, IR.segmentId(segment), index);
+    }
+
+    /**
+     * this method writes to the output file the assembly code
+     * that implements the given push or pop command. the sequence of every
+     * segment, index and direction comes from the table of PushPop
+     *
+     * @param command
+     * @param segment - the segment id (MappedParser.SEG_*)
+     * @param index
+     */
+    public void WritePushPop(commandType command, int segment, int index) {
+        if (command.equals(commandType.C_PUSH)) {
+            spill();
+            if (options.tosInD) {
+                PushPop.load(out, segment, index, fileName);
+                topInD = true;
+            } else {
+                PushPop.push(out, segment, index, fileName, options.peephole);
+            }
+        } else if (topInD) {
+            PushPop.store(out, segment, index, fileName);
+            topInD = false;
+        } else {
+            PushPop.pop(out, segment, index, fileName);
+        }
+    }
+
+    /**
+     * this method stores the top of the stack that is kept in D, so that the
+     * stack in memory is complete before a label, a jump, a call or a return
+     */
+    private void spill() {
+        if (topInD) {
+            out.append(SPILL);
+            topInD = false;
+        }
+    }
+
+    /**
+     * this methods translates the Label command and writes it into the asmFile
+     *
+     * @param label
+     */
+    public void WriteLabel(String label) {
+        spill();
+        // (functionName$label)
+        out.append('(');
+        appendScoped(label);
+        out.append(")\n");
+        count();
+    }
+
+    /**
+     * this methods translates the GOTO command and writes it into the asmFile
+     *
+     * @param label
+     */
+    public void WriteGoTo(String label) {
+        spill();
+        // @label
+        // 0;JMP
+        out.append("//goto label\n@");
+        appendScoped(label);
+        out.append(JMP);
+    }
+
+    /**
+     * this methods translates the IF-GOTO command and writes it into the asmFile
+     *
+     * @param label
+     */
+    public void WriteIf(String label) {
+        if (topInD) {
+            out.append('@');
+            appendScoped(label);
+            out.append("\nD;JNE\n");
+            topInD = false;
+            return;
+        }
+        // @SP
+        // M=M-1
+        // A=M
+        // D=M
+        // @label
+        // D;JNE
+        out.append(IF_POP);
+        appendScoped(label);
+        out.append("\nD;JNE\n");
+    }
+
+    /**
+     * this methods translates a comparison that is followed by an IF-GOTO command
+     * (optionally through a NOT command) into a single conditional jump, without
+     * pushing the boolean result
+     *
+     * @param command - eq, gt or lt
+     * @param negate  - true if the result is negated before the IF-GOTO
+     * @param label
+     */
+    public void WriteCompareIf(String command, boolean negate, String label) {
+        String jump;
+        switch (command) {
+            case "eq":
+                jump = negate ? "JNE" : "JEQ";
+                break;
+            case "gt":
+                jump = negate ? "JLE" : "JGT";
+                break;
+            case "lt":
+                jump = negate ? "JGE" : "JLT";
+                break;
+            default:
+                throw new IllegalArgumentException("Call WriteCompareIf() for a non-comparison command");
+        }
+        out.append("//").append(command).append(negate ? " not" : "").append(" if-goto ").append(label)
+                .append('\n');
+        if (topInD) {
+            out.append(POP_SECOND).append("D=M-D\n@");
+            appendScoped(label);
+            out.append("\nD;").append(jump).append('\n');
+            topInD = false;
+            return;
+        }
+        out.append(COMPARE_IF_POP);
+        appendScoped(label);
+        out.append("\nD;").append(jump).append('\n');
+    }
+
+    /**
+     * this methods translates the CALL command and writes it into the asmFile
+     *
+     * @param segment: function name
+     * @param Nargs    : number of args
+     */
+    public void WriteCall(String segment, int Nargs) {
+        spill();
+        count();
+        int retAddrIndex = retAddrFlag;
+        retAddrFlag++;
+        if (options.sharedCalls || compact) {
+            // load the callee, nArgs and return address and jump to $$CALL
+            out.append("//call ").append(segment).append(' ').append(Nargs).append('\n');
+            out.append('@').append(Nargs).append("\nD=A\n@R14\nM=D\n");
+            out.append('@').append(segment).append("\nD=A\n@R13\nM=D\n");
+            out.append('@');
+            appendReturnAddress(segment, retAddrIndex);
+            out.append("\nD=A\n@$$CALL").append(JMP);
+            inlineDelta += INLINE_CALL_SIZE - SHARED_CALL_SIZE;
+        } else {
+            // push retAddr
+            out.append("//push ");
+            appendReturnAddress(segment, retAddrIndex);
+            out.append("\n@");
+            appendReturnAddress(segment, retAddrIndex);
+            out.append(D_EQUALS_A).append(PUSH_SP_BYTES);
+            // push LCL, ARG, THIS, THAT and ARG = SP-5-Nargs
+            out.append(CALL_FRAME_BYTES).append(Nargs);
+            // LCL=SP and goto functionName
+            out.append(CALL_JUMP_BYTES).append(segment).append(JMP);
+        }
+        // (retAddrLabel)
+        out.append('(');
+        appendReturnAddress(segment, retAddrIndex);
+        out.append(")\n");
+    }
+
+    /**
+     * this methods translates a CALL command that is followed by RETURN into a
+     * jump to the shared tail call routine, which reuses the frame of the current
+     * function instead of pushing a new one
+     *
+     * @param segment: function name
+     * @param Nargs    : number of args
+     */
+    public void WriteTailCall(String segment, int Nargs) {
+        spill();
+        count();
+        out.append("//tail call ").append(segment).append(' ').append(Nargs).append('\n');
+        if (Nargs <= 1) {
+            out.append("@R14\nM=").append(Nargs).append('\n');
+        } else {
+            out.append('@').append(Nargs).append("\nD=A\n@R14\nM=D\n");
+        }
+        out.append('@').append(segment).append("\nD=A\n@R13\nM=D\n@$$TAILCALL").append(JMP);
+        tailCallCount++;
+    }
+
+    /**
+     * this methods translates the FUNCTION command and writes it into the asmFile
+     *
+     * @param segment: the name of the function
+     * @param Nargs    : the number of args
+     */
+    public void WriteFunction(String segment, int Nargs) {
+        spill();
+        // add a comment
+        out.append("// function ").append(segment).append(" number of args: ").append(Nargs).append('\n');
+        // print label with the name of the function
+        currentFunction = segment;
+        out.append('(').append(segment).append(")\n");
+        count();
+        // initializes the local variables to 0;
+        if (Nargs == 0) {
+            return;
+        }
+        out.append("//initializes the local variables to 0\n");
+        if (Nargs == 1) {
+            out.append(PUSH_ZERO);
+        } else if (compact) {
+            // D = Nargs, then push 0 until D is 0
+            out.append('@').append(Nargs).append(D_EQUALS_A).append('(');
+            appendGenerated("LOCALS", arthJumpFlag);
+            out.append(")\n").append(PUSH_ZERO).append("D=D-1\n@");
+            appendGenerated("LOCALS", arthJumpFlag);
+            out.append("\nD;JGT\n");
+            arthJumpFlag++;
+        } else {
+            // LCL = SP here: zero the words from SP on, then SP = LCL + Nargs
+            out.append("@SP\nA=M\nM=0\n");
+            for (int i = 1; i < Nargs; i++) {
+                out.append(ZERO_NEXT);
+            }
+            out.append("D=A+1\n@SP\nM=D\n");
+        }
+    }
+
+    /**
+     * this method picks the lowering of the next call, return, comparison or
+     * function command. the shared routines a compact command jumps to have to
+     * be written by WriteBootstrap
+     *
+     * @param compact - true for the shared routine or the loop over the locals,
+     *                false for the inline or unrolled code (unless the options
+     *                ask for the shared routines)
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    /**
+     * this method makes the next function, call or label command count its
+     * executions in a 32-bit counter: the low word at the address, the high word
+     * after it
+     *
+     * @param address - the address of the counter, -1 for none
+     */
+    public void setCounter(int address) {
+        this.counter = address;
+    }
+
+    /**
+     * this method marks where the code of the next command starts, for the source
+     * map. it does nothing without -source-map
+     *
+     * @param origin - the index of the command in its unit
+     */
+    public void setOrigin(int origin) {
+        if (marks != null) {
+            marks.add(new int[] { out.length(), origin });
+        }
+    }
+
+    /**
+     * @return the command every instruction of the code comes from, after the
+     *         peephole optimizer (-1 for the code before the first command), or
+     *         null without -source-map. the code writer has to be closed
+     */
+    public int[] getOrigins() {
+        return origins;
+    }
+
+    /**
+     * this helper function writes the increment of the counter of the command,
+     * if it has one. it changes D
+     */
+    private void count() {
+        if (counter < 0) {
+            return;
+        }
+        out.append("//count\n@").append(counter).append("\nM=M+1\nD=M\n@");
+        appendGenerated("COUNT", arthJumpFlag);
+        out.append("\nD;JNE\n@").append(counter + 1).append("\nM=M+1\n(");
+        appendGenerated("COUNT", arthJumpFlag);
+        out.append(")\n");
+        arthJumpFlag++;
+    }
+
+    /**
+     * this methods translates the RETURN command and writes it into the asmFile
+     */
+    public void WriteReturn() {
+        spill();
+        if (options.sharedCalls || compact) {
+            out.append(SHARED_RETURN_SITE);
+            inlineDelta += INLINE_RETURN_SIZE - SHARED_RETURN_SIZE;
+        } else {
+            out.append(RETURN_BYTES);
+        }
+    }
+
+    /**
+     * this helper function writes a label of the vm code scoped by the function it
+     * appears in, so that equal labels in different functions do not collide:
+     * functionName$label
+     *
+     * @param label
+     */
+    private void appendScoped(String label) {
+        out.append(currentFunction != null ? currentFunction : fileName).append('$').append(label);
+    }
+
+    /**
+     * this helper function writes a label generated by the translator namespaced
+     * by the file it is generated for, so that the files of a directory can be
+     * translated separately and concatenated: fileName$nameIndex
+     *
+     * @param name
+     * @param index
+     */
+    private void appendGenerated(String name, int index) {
+        out.append(fileName).append('$').append(name).append(index);
+    }
+
+    /**
+     * this helper function writes the return address label of a call:
+     * fileName$functionName$ret.index
+     *
+     * @param segment - the called function
+     * @param index
+     */
+    private void appendReturnAddress(String segment, int index) {
+        out.append(fileName).append('$').append(segment).append("$ret.").append(index);
+    }
+
+    /**
+     * this method writes a shared routine, which the inline lowering does not have
+     *
+     * @param routine
+     */
+    private void writeRoutine(byte[] routine) {
+        int before = out.length();
+        out.append(routine);
+        inlineDelta -= out.countInstructions(before);
+    }
+
+    /**
+     * this helper function counts the instructions in a piece of assembly code,
+     * skipping comment and label lines
+     *
+     * @param code
+     * @return the number of instructions
+     */
+    public static int countInstructions(String code) {
+        int count = 0;
+        int start = 0;
+        while (start < code.length()) {
+            int end = code.indexOf('\n', start);
+            if (end < 0) {
+                end = code.length();
+            }
+            if (end > start && code.charAt(start) != '/' && code.charAt(start) != '(') {
+                count++;
+            }
+            start = end + 1;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of instructions written by this code writer, after the
+     *         peephole optimizer
+     */
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+    /**
+     * @return the number of instructions the inline call/return and comparison
+     *         lowering would have written
+     */
+    public long getInlineInstructionCount() {
+        return inlineInstructionCount;
+    }
+
+    /**
+     * @return the number of instructions written by this code writer, before the
+     *         peephole optimizer
+     */
+    public long getUnoptimizedInstructionCount() {
+        return unoptimizedInstructionCount;
+    }
+
+    /**
+     * @return the number of tail calls written by this code writer
+     */
+    public long getTailCallCount() {
+        return tailCallCount;
+    }
+
+    /**
+     * this method runs the peephole optimizer over the code of this code writer,
+     * in its place in the buffer
+     */
+    private void optimize() {
+        int[] lineOrigins = marks == null ? null : lineOrigins();
+        Peephole.defaults().optimize(out, start, lineOrigins);
+        instructionCount = out.countInstructions(start);
+        if (lineOrigins != null) {
+            origins = instructionOrigins(lineOrigins);
+        }
+    }
+
+    /**
+     * this helper function finds the command every line of the code comes from,
+     * from the marks of the commands
+     *
+     * @return the origin of every line, -1 before the first command
+     */
+    private int[] lineOrigins() {
+        int[] lineOrigins = new int[out.countLines(start)];
+        byte[] bytes = out.array();
+        int mark = -1;
+        int line = 0;
+        boolean lineStart = true;
+        for (int i = start; i < out.length(); i++) {
+            if (lineStart) {
+                while (mark + 1 < marks.size() && marks.get(mark + 1)[0] <= i) {
+                    mark++;
+                }
+                lineOrigins[line++] = mark < 0 ? -1 : marks.get(mark)[1];
+            }
+            lineStart = bytes[i] == '\n';
+        }
+        return lineOrigins;
+    }
+
+    /**
+     * @param lineOrigins - the origin of every line of the code
+     * @return the origin of every instruction line, skipping comments and labels
+     */
+    private int[] instructionOrigins(int[] lineOrigins) {
+        int[] instructionOrigins = new int[out.countInstructions(start)];
+        byte[] bytes = out.array();
+        int line = 0;
+        int instruction = 0;
+        boolean lineStart = true;
+        for (int i = start; i < out.length(); i++) {
+            byte b = bytes[i];
+            if (lineStart && b != '/' && b != '(' && b != '\n') {
+                instructionOrigins[instruction++] = lineOrigins[line];
+            }
+            if (b == '\n') {
+                line++;
+            }
+            lineStart = b == '\n';
+        }
+        return instructionOrigins;
+    }
+
+    /**
+     * this method finishes the code of this code writer: it counts the
+     * instructions, runs the peephole optimizer and, if the code writer was
+     * constructed with an output file, appends the code to the file.
+     *
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        spill();
+        unoptimizedInstructionCount = out.countInstructions(start);
+        instructionCount = unoptimizedInstructionCount;
+        inlineInstructionCount = unoptimizedInstructionCount + inlineDelta;
+        if (options.peephole) {
+            optimize();
+        } else if (marks != null) {
+            origins = instructionOrigins(lineOrigins());
+        }
+        if (outputFile != null) {
+            try (FileChannel channel = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                channel.write(out.asByteBuffer());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+}
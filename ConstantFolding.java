@@ -0,0 +1,131 @@
+public class ConstantFolding implements Pass {
+
+    public String name() {
+        return "constant-folding";
+    }
+
+    public boolean wholeProgram() {
+        return false;
+    }
+
+    /**
+     * this method folds the arithmetic, logical and comparison commands whose
+     * operands are known constants into one push of the result. within a basic
+     * block the constants on top of the stack are the push constant commands at
+     * the end of the code kept so far, so a label, a jump, a call or any push that
+     * is not a constant ends the run of known values. an if-goto on a known value
+     * becomes a goto or disappears.
+     * the values wrap around to 16 bits and the comparisons give -1 (true) or 0
+     * (false) like the translated code, which compares the sign of x-y
+     *
+     * @param program
+     */
+    public void run(Program program) {
+        for (IR unit : program.getUnits()) {
+            if (fold(unit)) {
+                unit.compact();
+            }
+        }
+    }
+
+    /**
+     * @param unit
+     * @return true if a command was removed
+     */
+    private boolean fold(IR unit) {
+        // the positions of the push constant commands on top of the stack
+        int[] known = new int[16];
+        int depth = 0;
+        boolean changed = false;
+        for (int i = 0; i < unit.size(); i++) {
+            int op = unit.op(i);
+            if (op == IR.NOP) {
+                continue;
+            }
+            if (op == IR.PUSH && unit.arg(i) == MappedParser.SEG_CONSTANT) {
+                if (depth == known.length) {
+                    System.arraycopy(known, 1, known, 0, depth - 1);
+                    depth--;
+                }
+                known[depth++] = i;
+                continue;
+            }
+            if (op == IR.ARITHMETIC && isUnary(unit.arg(i)) && depth >= 1) {
+                int x = known[depth - 1];
+                setConstant(unit, x, unary(unit.arg(i), unit.index(x)));
+                unit.remove(i);
+                changed = true;
+                continue;
+            }
+            if (op == IR.ARITHMETIC && !isUnary(unit.arg(i)) && depth >= 2) {
+                int x = known[depth - 2];
+                int y = known[depth - 1];
+                setConstant(unit, x, binary(unit.arg(i), unit.index(x), unit.index(y)));
+                unit.remove(y);
+                unit.remove(i);
+                depth--;
+                changed = true;
+                continue;
+            }
+            if (op == IR.IF && depth >= 1) {
+                int x = known[--depth];
+                if (unit.index(x) == 0) {
+                    // never taken, the block goes on with the values below
+                    unit.remove(x);
+                    unit.remove(i);
+                    changed = true;
+                    continue;
+                }
+                unit.set(x, IR.GOTO, 0, 0, unit.symbol(i));
+                unit.remove(i);
+                changed = true;
+            }
+            depth = 0;
+        }
+        return changed;
+    }
+
+    private static boolean isUnary(int operation) {
+        return operation == IR.NEG || operation == IR.NOT;
+    }
+
+    private static void setConstant(IR unit, int i, int value) {
+        unit.set(i, IR.PUSH, MappedParser.SEG_CONSTANT, value, IR.NO_SYMBOL);
+    }
+
+    /**
+     * @param operation - neg or not
+     * @param x
+     * @return the 16-bit result
+     */
+    private static int unary(int operation, int x) {
+        return (short) (operation == IR.NEG ? -x : ~x);
+    }
+
+    /**
+     * @param operation - add, sub, and, or, eq, gt or lt
+     * @param x         - the operand below the top of the stack
+     * @param y         - the operand on top of the stack
+     * @return the 16-bit result
+     */
+    private static int binary(int operation, int x, int y) {
+        switch (operation) {
+            case IR.ADD:
+                return (short) (x + y);
+            case IR.SUB:
+                return (short) (x - y);
+            case IR.AND:
+                return (short) (x & y);
+            case IR.OR:
+                return (short) (x | y);
+            case IR.EQ:
+                return (short) (x - y) == 0 ? -1 : 0;
+            case IR.GT:
+                return (short) (x - y) > 0 ? -1 : 0;
+            case IR.LT:
+                return (short) (x - y) < 0 ? -1 : 0;
+            default:
+                throw new IllegalArgumentException("Cannot fold arithmetic operation " + operation);
+        }
+    }
+}
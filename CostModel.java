@@ -0,0 +1,435 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CostModel {
+    // the commands that have two lowerings: the inline one and a compact one
+    public static final int CALL = 0; // inline frame or the $$CALL routine
+    public static final int RETURN = 1; // inline return or the $$RETURN routine
+    public static final int COMPARE = 2; // inline eq/gt/lt or the $$EQ/$$GT/$$LT routines
+    public static final int LOCALS = 3; // unrolled or looped zeroing of the locals
+    private static final int KINDS = 4;
+
+    // the longest path of a shared comparison routine: all of it, false result
+    private static final int COMPARE_ROUTINE_CYCLES = CodeWriter.COMPARE_ROUTINE_SIZE;
+    // the inline comparison: 7 instructions to the jump, then 5 more on either path
+    private static final int INLINE_COMPARE_CYCLES = 12;
+    // with -tos: 5 instructions to the jump, then D=0, @CONT, 0;JMP or D=-1
+    private static final int INLINE_COMPARE_TOS_SIZE = 9;
+    private static final int INLINE_COMPARE_TOS_CYCLES = 8;
+    // with -tos a shared comparison first spills D: @SP, AM=M+1, A=A-1, M=D
+    private static final int SPILL_SIZE = 4;
+    // the loop over the locals: @n, D=A, then @SP, AM=M+1, A=A-1, M=0, D=D-1,
+    // @LOOP, D;JGT for every local
+    private static final int LOOP_SETUP = 2;
+    private static final int LOOP_BODY = 7;
+    // the weight of a command inside a loop, relative to the command before it
+    private static final int LOOP_WEIGHT = 10;
+    private static final int MAX_LOOP_DEPTH = 3;
+
+    private final Options options;
+    // true for -Os
+    private final boolean small;
+    // the counts of a run, null for the static estimate
+    private final Profile profile;
+    // the static choice of the calls, returns and comparisons, from the profile
+    private final boolean[] compactKinds = new boolean[KINDS];
+    // the commands that were switched to their compact lowering to fit the budget
+    private final Map<IR, BitSet> switched = new HashMap<>();
+    private final boolean[] routines = new boolean[KINDS];
+
+    /**
+     * constructor of the cost model. a command takes its compact lowering if it
+     * costs no more cycles; -Os and the budget switch more commands once the
+     * whole program is known
+     *
+     * @param options
+     */
+    private CostModel(Options options) {
+        this.options = options;
+        this.small = options.profile.equals("Os");
+        this.profile = options.profileUse;
+        for (int kind = CALL; kind <= COMPARE; kind++) {
+            compactKinds[kind] = fasterCompact(kind, 0);
+        }
+        compactKinds[CALL] |= options.sharedCalls;
+        compactKinds[RETURN] |= options.sharedCalls;
+        compactKinds[COMPARE] |= options.sharedCompare;
+        for (int kind = 0; kind < KINDS; kind++) {
+            routines[kind] = compactKinds[kind];
+        }
+    }
+
+    /**
+     * @param kind
+     * @param locals - the number of locals, for LOCALS
+     * @return true if the compact lowering costs no more cycles
+     */
+    private boolean fasterCompact(int kind, int locals) {
+        return cycles(kind, true, locals) <= cycles(kind, false, locals);
+    }
+
+    /**
+     * @param options
+     * @return the cost model of the options, or null if they pick no profile, no
+     *         ROM budget and no recorded counts. a budget and the counts start
+     *         from -O2
+     */
+    public static CostModel plan(Options options) {
+        if (options.profile.isEmpty() && options.romBudget == 0 && options.profileUse == null) {
+            return null;
+        }
+        return new CostModel(options);
+    }
+
+    /**
+     * @param kind
+     * @param compact
+     * @param locals  - the number of locals, for LOCALS
+     * @return the instructions of a lowering, with the counter in front of it in
+     *         an instrumented program
+     */
+    public int words(int kind, boolean compact, int locals) {
+        return loweringWords(kind, compact, locals) + counterWords(kind);
+    }
+
+    /**
+     * @param kind
+     * @param compact
+     * @param locals  - the number of locals, for LOCALS
+     * @return the cycles one execution of a lowering takes, on its longest path,
+     *         with the counter in front of it in an instrumented program
+     */
+    public int cycles(int kind, boolean compact, int locals) {
+        return loweringCycles(kind, compact, locals) + counterWords(kind);
+    }
+
+    /**
+     * @param kind
+     * @return the instructions of the counter that -instrument writes in front of
+     *         the calls and functions (see Counters.assign), 0 for the other
+     *         kinds or without -instrument. all of them run when the low word
+     *         of the counter wraps
+     */
+    private int counterWords(int kind) {
+        return options.instrument && (kind == CALL || kind == LOCALS) ? CodeWriter.COUNT_SIZE : 0;
+    }
+
+    private int loweringWords(int kind, boolean compact, int locals) {
+        switch (kind) {
+            case CALL:
+                return compact ? CodeWriter.SHARED_CALL_SIZE : CodeWriter.INLINE_CALL_SIZE;
+            case RETURN:
+                return compact ? CodeWriter.SHARED_RETURN_SIZE : CodeWriter.INLINE_RETURN_SIZE;
+            case COMPARE:
+                if (options.tosInD) {
+                    return compact ? SPILL_SIZE + CodeWriter.SHARED_COMPARE_SIZE : INLINE_COMPARE_TOS_SIZE;
+                }
+                return compact ? CodeWriter.SHARED_COMPARE_SIZE : CodeWriter.INLINE_COMPARE_SIZE;
+            default:
+                if (locals < 2) {
+                    return locals == 0 ? 0 : 4;
+                }
+                // @SP, A=M, M=0, then A=A+1, M=0 per local, D=A+1, @SP, M=D
+                return compact ? LOOP_SETUP + LOOP_BODY : 2 * locals + 4;
+        }
+    }
+
+    private int loweringCycles(int kind, boolean compact, int locals) {
+        switch (kind) {
+            case CALL:
+                return compact ? CodeWriter.SHARED_CALL_SIZE + CodeWriter.CALL_ROUTINE_SIZE
+                        : CodeWriter.INLINE_CALL_SIZE;
+            case RETURN:
+                return compact ? CodeWriter.SHARED_RETURN_SIZE + CodeWriter.RETURN_ROUTINE_SIZE
+                        : CodeWriter.INLINE_RETURN_SIZE;
+            case COMPARE:
+                if (options.tosInD) {
+                    return compact ? SPILL_SIZE + CodeWriter.SHARED_COMPARE_SIZE + COMPARE_ROUTINE_CYCLES
+                            : INLINE_COMPARE_TOS_CYCLES;
+                }
+                return compact ? CodeWriter.SHARED_COMPARE_SIZE + COMPARE_ROUTINE_CYCLES : INLINE_COMPARE_CYCLES;
+            default:
+                if (locals < 2) {
+                    return loweringWords(kind, compact, locals);
+                }
+                return compact ? LOOP_SETUP + LOOP_BODY * locals : 2 * locals + 4;
+        }
+    }
+
+    /**
+     * @param kind
+     * @return the instructions of the shared routines of a kind
+     */
+    private static int routineWords(int kind) {
+        switch (kind) {
+            case CALL:
+                return CodeWriter.CALL_ROUTINE_SIZE;
+            case RETURN:
+                return CodeWriter.RETURN_ROUTINE_SIZE;
+            case COMPARE:
+                return 3 * CodeWriter.COMPARE_ROUTINE_SIZE;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @param unit
+     * @param i
+     * @return the kind of a command, or -1 if it has only one lowering
+     */
+    public static int kind(IR unit, int i) {
+        switch (unit.op(i)) {
+            case IR.CALL:
+                return CALL;
+            case IR.RETURN:
+                return RETURN;
+            case IR.FUNCTION:
+                return unit.index(i) >= 2 ? LOCALS : -1;
+            case IR.ARITHMETIC:
+                return unit.isComparison(i) ? COMPARE : -1;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * @param unit
+     * @param i
+     * @return true if a command takes its compact lowering
+     */
+    public boolean isCompact(IR unit, int i) {
+        int kind = kind(unit, i);
+        if (kind < 0) {
+            return false;
+        }
+        BitSet bits = switched.get(unit);
+        if (bits != null && bits.get(i)) {
+            return true;
+        }
+        return kind == LOCALS ? fasterCompact(kind, unit.index(i)) : compactKinds[kind];
+    }
+
+    /**
+     * @return true if the lowering of a unit depends on the other units, so that
+     *         its cached fragment cannot be reused
+     */
+    public boolean isWholeProgram() {
+        return small || options.romBudget > 0 || profile != null;
+    }
+
+    /**
+     * this method makes every command compact that saves instructions before
+     * the program is lowered: all of them with -Os, the ones in cold code (see
+     * Profile.isHot) with recorded counts. the calls, returns or comparisons of
+     * a program stay inline if they do not save more than their routines take
+     *
+     * @param program
+     */
+    public void prepare(Program program) {
+        if (!small && profile == null) {
+            return;
+        }
+        for (long[] candidate : candidates(program, !small)) {
+            take(program, candidate);
+        }
+    }
+
+    /**
+     * @param kind
+     * @return true if the bootstrap has to write the shared routines of a kind
+     */
+    public boolean usesRoutine(int kind) {
+        return routines[kind];
+    }
+
+    /**
+     * this method switches commands to their compact lowering until the program
+     * is estimated to fit in the ROM budget. the commands are taken in the order
+     * of the cycles they lose per instruction they save, where the cycles are
+     * weighted with how often the command ran, from the recorded counts, or with
+     * a static estimate: 10 times for every loop (a backward jump in the
+     * function) around it, times the number of call sites of the function,
+     * weighted the same way. the routines of a kind are counted when its first
+     * command switches.
+     *
+     * @param program
+     * @param size    - the size of the program as it was lowered last
+     * @return false if the program fits or no command is left to switch
+     */
+    public boolean shrink(Program program, long size) {
+        long excess = size - options.romBudget;
+        if (options.romBudget == 0 || excess <= 0) {
+            return false;
+        }
+        List<long[]> candidates = candidates(program, false);
+        // by lost cycles per saved instruction: a/b < c/d <=> a*d < c*b
+        candidates.sort((a, b) -> Long.compare(a[0] * b[1], b[0] * a[1]));
+        boolean changed = false;
+        for (long[] candidate : candidates) {
+            if (excess <= 0) {
+                break;
+            }
+            excess -= take(program, candidate);
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * this helper function switches a command to its compact lowering
+     *
+     * @param program
+     * @param candidate
+     * @return the instructions it is estimated to save, minus the routines it
+     *         brings in
+     */
+    private long take(Program program, long[] candidate) {
+        int kind = (int) candidate[4];
+        IR unit = program.getUnits().get((int) candidate[2]);
+        switched.computeIfAbsent(unit, key -> new BitSet()).set((int) candidate[3]);
+        long saved = candidate[1];
+        if (!routines[kind]) {
+            routines[kind] = true;
+            saved -= routineWords(kind);
+        }
+        return saved;
+    }
+
+    /**
+     * this helper function lists the commands that save instructions in their
+     * compact lowering, as {weighted lost cycles, saved instructions, unit, index,
+     * kind}. a kind whose routines are not written yet is left out if all of its
+     * commands together do not save more than the routines take
+     *
+     * @param program
+     * @param coldOnly - true to leave out the commands in hot code
+     * @return the candidates
+     */
+    private List<long[]> candidates(Program program, boolean coldOnly) {
+        Map<Integer, Long> entries = profile == null ? entryWeights(program) : null;
+        List<long[]> candidates = new ArrayList<>();
+        long[] savedByKind = new long[KINDS];
+        List<IR> units = program.getUnits();
+        for (int u = 0; u < units.size(); u++) {
+            IR unit = units.get(u);
+            long[] weights = weights(unit, entries);
+            for (int i = 0; i < unit.size(); i++) {
+                int kind = kind(unit, i);
+                if (kind < 0 || isCompact(unit, i) || (coldOnly && profile.isHot(weights[i]))) {
+                    continue;
+                }
+                int saved = words(kind, false, unit.index(i)) - words(kind, true, unit.index(i));
+                if (saved <= 0) {
+                    continue;
+                }
+                long lost = Math.max(0, cycles(kind, true, unit.index(i)) - cycles(kind, false, unit.index(i)));
+                candidates.add(new long[] { weights[i] * lost, saved, u, i, kind });
+                savedByKind[kind] += saved;
+            }
+        }
+        candidates.removeIf(candidate -> !routines[(int) candidate[4]]
+                && savedByKind[(int) candidate[4]] <= routineWords((int) candidate[4]));
+        return candidates;
+    }
+
+    /**
+     * @param program
+     * @return the weight of every function by symbol: 1 plus the loop weights of
+     *         its call sites
+     */
+    private static Map<Integer, Long> entryWeights(Program program) {
+        Map<Integer, Long> entries = new HashMap<>();
+        for (IR unit : program.getUnits()) {
+            int[] depths = loopDepths(unit);
+            for (int i = 0; i < unit.size(); i++) {
+                if (unit.op(i) == IR.CALL || unit.op(i) == IR.TAIL_CALL) {
+                    entries.merge(unit.symbol(i), loopWeight(depths[i]), Long::sum);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @param unit
+     * @param entries - the weights of the functions
+     * @return the weight of every command of a unit
+     */
+    private long[] weights(IR unit, Map<Integer, Long> entries) {
+        if (profile != null) {
+            return profileWeights(unit);
+        }
+        int[] depths = loopDepths(unit);
+        long[] weights = new long[unit.size()];
+        long entry = 1;
+        for (int i = 0; i < unit.size(); i++) {
+            if (unit.op(i) == IR.FUNCTION) {
+                entry = 1 + entries.getOrDefault(unit.symbol(i), 0L);
+            }
+            weights[i] = entry * loopWeight(depths[i]);
+        }
+        return weights;
+    }
+
+    /**
+     * @param unit
+     * @return how often every command of a unit ran: the count of the function or
+     *         label that starts its block
+     */
+    private long[] profileWeights(IR unit) {
+        long[] weights = new long[unit.size()];
+        // the code before the first function runs once
+        long count = 1;
+        for (int i = 0; i < unit.size(); i++) {
+            if (unit.op(i) == IR.FUNCTION || unit.op(i) == IR.LABEL) {
+                count = profile.count(unit, i);
+            }
+            weights[i] = count;
+        }
+        return weights;
+    }
+
+    private static long loopWeight(int depth) {
+        long weight = 1;
+        for (int d = Math.min(depth, MAX_LOOP_DEPTH); d > 0; d--) {
+            weight *= LOOP_WEIGHT;
+        }
+        return weight;
+    }
+
+    /**
+     * this helper function counts the loops around every command of a unit: a
+     * jump back to a label of the same function makes a loop of the commands
+     * from the label to the jump
+     *
+     * @param unit
+     * @return the loop depth of every command
+     */
+    private static int[] loopDepths(IR unit) {
+        int[] depths = new int[unit.size() + 1];
+        Map<Integer, Integer> labels = new HashMap<>();
+        for (int i = 0; i < unit.size(); i++) {
+            int op = unit.op(i);
+            if (op == IR.FUNCTION) {
+                labels.clear();
+            } else if (op == IR.LABEL) {
+                labels.put(unit.symbol(i), i);
+            } else if (op == IR.GOTO || op == IR.IF || op == IR.COMPARE_IF) {
+                Integer label = labels.get(unit.symbol(i));
+                if (label != null) {
+                    // a difference array: +1 from the label, -1 after the jump
+                    depths[label]++;
+                    depths[i + 1]--;
+                }
+            }
+        }
+        for (int i = 1; i < depths.length; i++) {
+            depths[i] += depths[i - 1];
+        }
+        return depths;
+    }
+}
@@ -0,0 +1,176 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Counters {
+    // the counters live in the screen memory map, which a headless run does not
+    // use: two words per counter, the low word first
+    public static final int BASE = 16384;
+    public static final int MAX_COUNTERS = 4096;
+
+    // the address of the counter of every function, call and label command by
+    // unit, -1 for the other commands
+    private final Map<IR, int[]> addresses = new HashMap<>();
+    // one line per counter: address, kind, file:line and name
+    private final List<String> entries = new ArrayList<>();
+
+    /**
+     * this function numbers a counter for every function, call and label command
+     * of the program, in the order of the units, so the numbers do not depend on
+     * the threads that lower them. the label of a halt loop is not counted
+     *
+     * @param program
+     * @return the counters
+     * @throws IllegalArgumentException if the program has more commands to count
+     *                                  than the region holds
+     */
+    public static Counters assign(Program program) {
+        Counters counters = new Counters();
+        for (IR unit : program.getUnits()) {
+            int[] addresses = new int[unit.size()];
+            String function = unit.getName();
+            for (int i = 0; i < unit.size(); i++) {
+                addresses[i] = -1;
+                String kind;
+                String name;
+                switch (unit.op(i)) {
+                    case IR.FUNCTION:
+                        function = program.symbolName(unit.symbol(i));
+                        kind = "function";
+                        name = function;
+                        break;
+                    case IR.CALL:
+                    case IR.TAIL_CALL:
+                        kind = "call";
+                        name = function + ">" + program.symbolName(unit.symbol(i));
+                        break;
+                    case IR.LABEL:
+                        if (i + 1 < unit.size() && unit.op(i + 1) == IR.GOTO
+                                && unit.symbol(i + 1) == unit.symbol(i)) {
+                            // "label END goto END" has to stay a jump to itself,
+                            // which is how a program halts
+                            continue;
+                        }
+                        kind = "label";
+                        name = function + "$" + program.symbolName(unit.symbol(i));
+                        break;
+                    default:
+                        continue;
+                }
+                if (counters.entries.size() == MAX_COUNTERS) {
+                    throw new IllegalArgumentException("Too many counters: more than " + MAX_COUNTERS
+                            + " functions, calls and labels");
+                }
+                addresses[i] = BASE + 2 * counters.entries.size();
+                counters.entries.add(addresses[i] + " " + kind + " " + unit.getSource().getName() + ":"
+                        + unit.line(i) + " " + name);
+            }
+            counters.addresses.put(unit, addresses);
+        }
+        return counters;
+    }
+
+    /**
+     * @param unit
+     * @param i
+     * @return the address of the counter of a command, or -1
+     */
+    public int address(IR unit, int i) {
+        int[] unitAddresses = addresses.get(unit);
+        return unitAddresses == null ? -1 : unitAddresses[i];
+    }
+
+    /**
+     * @return one line per counter: address, kind, file:line and name
+     */
+    public List<String> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @param outputFile - the translated program
+     * @param extension  - the extension of the file next to it, with the dot
+     * @return the file with the same name as the program and the extension
+     */
+    public static File sibling(File outputFile, String extension) {
+        String name = outputFile.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(outputFile.getAbsoluteFile().getParentFile(),
+                (dot < 0 ? name : name.substring(0, dot)) + extension);
+    }
+
+    /**
+     * this function writes the counter map of an instrumented program next to it
+     * (Name.counters)
+     *
+     * @param outputFile - the translated program
+     * @param entries    - the lines of the map
+     * @throws IOException
+     */
+    public static void writeMap(File outputFile, List<String> entries) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("# address kind file:line name");
+        lines.addAll(entries);
+        Files.write(sibling(outputFile, ".counters").toPath(), lines, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * this function runs a program that was translated with -instrument on the
+     * emulator and writes the counts of its functions, calls and labels into
+     * Name.profile, which -profile-use reads. the counter map Name.counters has to
+     * be next to the program. the hottest functions are printed.
+     * usage: java Counters <file.asm | file.hack | file.bin> [-budget cycles]
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Error: No instrumented program provided");
+            return;
+        }
+        long budget = 100_000_000L;
+        if (args.length >= 3 && args[1].equals("-budget")) {
+            budget = Long.parseLong(args[2]);
+        }
+        File program = new File(args[0]);
+        try {
+            List<String> map = Files.readAllLines(sibling(program, ".counters").toPath(), StandardCharsets.US_ASCII);
+            HackCPU cpu = new HackCPU(HackAssembler.load(program));
+            int status = cpu.run(budget);
+            System.out.println("Cycles: " + cpu.getCycles() + " (" + HackCPU.statusName(status) + ")");
+
+            List<String> profile = new ArrayList<>();
+            profile.add("# count kind file:line name");
+            List<String[]> functions = new ArrayList<>();
+            for (String line : map) {
+                if (line.startsWith("#") || line.isBlank()) {
+                    continue;
+                }
+                String[] fields = line.split(" ", 4);
+                if (fields.length < 4) {
+                    throw new IllegalArgumentException("Invalid counter map line: " + line);
+                }
+                int address = Integer.parseInt(fields[0]);
+                long count = (cpu.peek(address) & 0xffff) | (long) (cpu.peek(address + 1) & 0xffff) << 16;
+                profile.add(count + " " + fields[1] + " " + fields[2] + " " + fields[3]);
+                if (fields[1].equals("function")) {
+                    functions.add(new String[] { Long.toString(count), fields[3] });
+                }
+            }
+            File profileFile = sibling(program, ".profile");
+            Files.write(profileFile.toPath(), profile, StandardCharsets.US_ASCII);
+            functions.sort((a, b) -> Long.compare(Long.parseLong(b[0]), Long.parseLong(a[0])));
+            for (int i = 0; i < Math.min(10, functions.size()); i++) {
+                System.out.println(String.format("%12s  %s", functions.get(i)[0], functions.get(i)[1]));
+            }
+            System.out.println("Profile written to " + profileFile);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+}
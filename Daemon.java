@@ -0,0 +1,234 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class Daemon {
+    // the port the VMtranslator script connects to, on the loopback address only
+    public static final int DEFAULT_PORT = 7407;
+    // how long a client may take to send its request, in milliseconds
+    private static final int REQUEST_TIMEOUT = 10_000;
+    // the bytes of the token a request starts with
+    private static final int TOKEN_BYTES = 32;
+
+    /**
+     * this function starts the translator daemon: a long-lived process that
+     * listens on a loopback port and runs every translate request on a pool of
+     * worker threads, so the translations share one warm jvm instead of starting
+     * one each. it runs until a stop request.
+     * usage: java Main -daemon [-port n] [-workers n]
+     *
+     * any local user can connect to the port, so every request starts with a
+     * token the daemon writes when it starts into a file only its user can read
+     * (see tokenFile). a request is one line of tab-separated fields, the token
+     * then the request, answered with the diagnostics of the translation and a
+     * last line "status n" (0 if it succeeded):
+     * translate, the directory of the client, then the arguments of Main
+     * ping
+     * stop
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        int port = DEFAULT_PORT;
+        int workers = Runtime.getRuntime().availableProcessors();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-port") && i + 1 < args.length) {
+                    port = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-workers") && i + 1 < args.length) {
+                    workers = Integer.parseInt(args[++i]);
+                } else {
+                    System.out.println("Error: Unknown daemon option: " + args[i]);
+                    return;
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Error: Invalid value for a daemon option: " + e.getMessage());
+            return;
+        }
+        if (workers < 1) {
+            System.out.println("Error: -workers needs at least one thread");
+            return;
+        }
+        String token;
+        try {
+            token = writeToken(tokenFile());
+        } catch (IOException | UnsupportedOperationException e) {
+            System.out.println("Error: cannot write the token file " + tokenFile() + ": " + e.getMessage());
+            return;
+        }
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.out.println("Daemon: listening on " + server.getInetAddress().getHostAddress() + ":"
+                    + server.getLocalPort() + " with " + workers + " workers, token in " + tokenFile());
+            serve(server, workers, token);
+        } catch (IOException e) {
+            System.out.println("Error: cannot listen on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the file of the token: .vmtranslator/daemon.token in the home
+     *         directory of the user
+     */
+    public static File tokenFile() {
+        return new File(new File(System.getProperty("user.home"), ".vmtranslator"), "daemon.token");
+    }
+
+    /**
+     * this function writes a new random token into a file that only the user can
+     * read (mode 0600, in a directory with mode 0700), so the requests of other
+     * users are rejected. the token of an earlier daemon is replaced
+     *
+     * @param file
+     * @return the token, as hex digits
+     * @throws IOException
+     */
+    private static String writeToken(File file) throws IOException {
+        Path dir = file.getParentFile().toPath();
+        Files.createDirectories(dir);
+        Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwx------"));
+        if (!Files.getOwner(dir).getName().equals(System.getProperty("user.name"))) {
+            throw new IOException(dir + " belongs to another user");
+        }
+        byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+        StringBuilder token = new StringBuilder();
+        for (byte b : random) {
+            token.append(String.format("%02x", b));
+        }
+        Path temp = Files.createTempFile(dir, "daemon", ".tmp",
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        Files.write(temp, (token + "\n").getBytes(StandardCharsets.US_ASCII));
+        Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return token.toString();
+    }
+
+    /**
+     * this function accepts connections until the server socket is closed by a
+     * stop request. the requests that are running are finished before it returns
+     *
+     * @param server
+     * @param workers - the number of requests that run at the same time
+     * @param token   - the token every request has to start with
+     */
+    public static void serve(ServerSocket server, int workers, String token) {
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            while (!server.isClosed()) {
+                Socket client;
+                try {
+                    client = server.accept();
+                } catch (IOException e) {
+                    // closed by a stop request
+                    break;
+                }
+                pool.submit(() -> handle(client, server, token));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * this helper function reads one request from a client, runs it and sends
+     * back its diagnostics and status
+     *
+     * @param client
+     * @param server - closed by a stop request
+     * @param token  - the token the request has to start with
+     */
+    private static void handle(Socket client, ServerSocket server, String token) {
+        try (Socket socket = client) {
+            socket.setSoTimeout(REQUEST_TIMEOUT);
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintStream out = new PrintStream(new BufferedOutputStream(socket.getOutputStream()), false,
+                    StandardCharsets.UTF_8.name());
+            String line = in.readLine();
+            int separator = line == null ? -1 : line.indexOf('\t');
+            boolean valid = separator >= 0 && MessageDigest.isEqual(
+                    line.substring(0, separator).getBytes(StandardCharsets.UTF_8),
+                    token.getBytes(StandardCharsets.UTF_8));
+            String request = separator < 0 ? "" : line.substring(separator + 1);
+            long start = System.nanoTime();
+            int status;
+            if (!valid) {
+                out.println("Error: Missing or invalid token");
+                request = "(rejected: invalid token)";
+                status = 1;
+            } else {
+                status = execute(request, out, server);
+            }
+            out.println("status " + status);
+            out.flush();
+            System.out.println("Daemon: " + request.replace('\t', ' ') + " -> status " + status + " ("
+                    + (System.nanoTime() - start) / 1_000_000 + " ms)");
+        } catch (SocketException e) {
+            // the client went away, there is no one to answer
+        } catch (IOException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * this function runs one request. every translation parses its own options and
+     * gets its own passes, so the requests share nothing but the jvm
+     *
+     * @param request - the line sent by the client, after its token
+     * @param out     - where the diagnostics are printed
+     * @param server  - closed by a stop request
+     * @return the status: 0 if the request succeeded, 1 if it printed an error
+     */
+    public static int execute(String request, PrintStream out, ServerSocket server) {
+        if (request == null || request.isEmpty()) {
+            out.println("Error: Empty request");
+            return 1;
+        }
+        String[] fields = request.split("\t", -1);
+        switch (fields[0]) {
+            case "ping":
+                out.println("Daemon: ready");
+                return 0;
+            case "stop":
+                out.println("Daemon: stopping");
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    out.println("Error: " + e.getMessage());
+                    return 1;
+                }
+                return 0;
+            case "translate":
+                if (fields.length < 2 || !new File(fields[1]).isAbsolute()) {
+                    out.println("Error: A translate request needs the absolute directory of the client");
+                    return 1;
+                }
+                try {
+                    return Main.run(Arrays.copyOfRange(fields, 2, fields.length), new File(fields[1]), out);
+                } catch (RuntimeException e) {
+                    out.println("Error: " + e);
+                    return 1;
+                }
+            default:
+                out.println("Error: Unknown request: " + fields[0]);
+                return 1;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+public class DeadFunctions implements Pass {
+    // the function that the bootstrap calls
+    public static final String ENTRY = "Sys.init";
+
+    private List<String> removedNames;
+    private List<IR> removed;
+
+    /**
+     * constructor of the pass
+     */
+    public DeadFunctions() {
+        this.removedNames = new ArrayList<>();
+        this.removed = new ArrayList<>();
+    }
+
+    public String name() {
+        return "dead-functions";
+    }
+
+    public boolean wholeProgram() {
+        return true;
+    }
+
+    /**
+     * this method builds the call graph of the program from its function and call
+     * commands, and drops every function that cannot be reached from Sys.init.
+     * the commands before the first function of a file are always kept, and
+     * calls from them are roots as well.
+     * if the program does not define Sys.init nothing is removed
+     *
+     * @param program
+     */
+    public void run(Program program) {
+        List<IR> units = program.getUnits();
+        int entry = program.findSymbol(ENTRY);
+        if (entry == IR.NO_SYMBOL) {
+            return;
+        }
+        // where every function is defined
+        int symbols = program.symbolCount();
+        int[] definedIn = new int[symbols];
+        int[] definedAt = new int[symbols];
+        Arrays.fill(definedIn, -1);
+        for (int u = 0; u < units.size(); u++) {
+            IR unit = units.get(u);
+            for (int i = 0; i < unit.size(); i++) {
+                if (unit.op(i) == IR.FUNCTION) {
+                    definedIn[unit.symbol(i)] = u;
+                    definedAt[unit.symbol(i)] = i;
+                }
+            }
+        }
+        if (definedIn[entry] < 0) {
+            return;
+        }
+
+        // mark the reachable functions
+        boolean[] reachable = new boolean[symbols];
+        Deque<Integer> work = new ArrayDeque<>();
+        reachable[entry] = true;
+        work.push(entry);
+        for (IR unit : units) {
+            markCalls(unit, 0, reachable, definedIn, work);
+        }
+        while (!work.isEmpty()) {
+            int function = work.pop();
+            markCalls(units.get(definedIn[function]), definedAt[function] + 1, reachable, definedIn, work);
+        }
+
+        // move the unreachable functions out of the program
+        for (IR unit : units) {
+            IR dead = new IR(unit.getSource());
+            boolean live = true;
+            for (int i = 0; i < unit.size(); i++) {
+                if (unit.op(i) == IR.FUNCTION) {
+                    live = reachable[unit.symbol(i)];
+                    if (!live) {
+                        removedNames.add(program.symbolName(unit.symbol(i)));
+                    }
+                }
+                if (!live) {
+                    dead.add(unit.op(i), unit.arg(i), unit.index(i), unit.symbol(i), unit.line(i));
+                    unit.remove(i);
+                }
+            }
+            if (dead.size() > 0) {
+                unit.compact();
+                removed.add(dead);
+            }
+        }
+    }
+
+    /**
+     * this helper function marks the callees of the code that starts at the given
+     * position and ends at the next function command
+     *
+     * @param unit
+     * @param from
+     * @param reachable
+     * @param definedIn
+     * @param work      - the functions that were marked and not scanned yet
+     */
+    private static void markCalls(IR unit, int from, boolean[] reachable, int[] definedIn, Deque<Integer> work) {
+        for (int i = from; i < unit.size() && unit.op(i) != IR.FUNCTION; i++) {
+            if (unit.op(i) != IR.CALL && unit.op(i) != IR.TAIL_CALL) {
+                continue;
+            }
+            int callee = unit.symbol(i);
+            // a call to a function that is not in the program is left as it is
+            if (!reachable[callee] && definedIn[callee] >= 0) {
+                reachable[callee] = true;
+                work.push(callee);
+            }
+        }
+    }
+
+    /**
+     * @return the names of the functions that were removed
+     */
+    public List<String> getRemovedNames() {
+        return removedNames;
+    }
+
+    /**
+     * @return the commands that were removed, one unit per file
+     */
+    public List<IR> getRemoved() {
+        return removed;
+    }
+}
@@ -0,0 +1,466 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class HackAssembler {
+    // the comp field of the C-instructions, with the a-bit, in the order of the Hack
+    // specification
+    private static final Map<String, Integer> COMP = new HashMap<>();
+    private static final String[] DEST = { "", "M", "D", "MD", "A", "AM", "AD", "AMD" };
+    private static final String[] JUMP = { "", "JGT", "JEQ", "JGE", "JLT", "JNE", "JLE", "JMP" };
+    // the comp and jump mnemonics packed into ints, sorted, for lookups without strings
+    private static int[] compKeys;
+    private static int[] compValues;
+    private static int[] jumpKeys;
+    // the first address of the variables
+    public static final int VARIABLE_BASE = 16;
+    // the words of the ROM: an A-instruction holds an address of 15 bits
+    public static final int ROM_SIZE = 32768;
+
+    static {
+        String[][] table = { { "0", "101010" }, { "1", "111111" }, { "-1", "111010" }, { "D", "001100" },
+                { "A", "110000" }, { "!D", "001101" }, { "!A", "110001" }, { "-D", "001111" },
+                { "-A", "110011" }, { "D+1", "011111" }, { "A+1", "110111" }, { "D-1", "001110" },
+                { "A-1", "110010" }, { "D+A", "000010" }, { "D-A", "010011" }, { "A-D", "000111" },
+                { "D&A", "000000" }, { "D|A", "010101" } };
+        for (String[] entry : table) {
+            int bits = Integer.parseInt(entry[1], 2);
+            addComp(entry[0], bits);
+            if (entry[0].contains("A")) {
+                addComp(entry[0].replace('A', 'M'), bits | 0x40);
+            }
+        }
+        String[] comps = COMP.keySet().toArray(new String[0]);
+        long[] packed = new long[comps.length];
+        for (int i = 0; i < comps.length; i++) {
+            packed[i] = (long) pack(comps[i]) << 32 | COMP.get(comps[i]);
+        }
+        Arrays.sort(packed);
+        compKeys = new int[packed.length];
+        compValues = new int[packed.length];
+        for (int i = 0; i < packed.length; i++) {
+            compKeys[i] = (int) (packed[i] >> 32);
+            compValues[i] = (int) packed[i];
+        }
+        jumpKeys = new int[JUMP.length];
+        for (int i = 0; i < JUMP.length; i++) {
+            jumpKeys[i] = pack(JUMP[i]);
+        }
+    }
+
+    /**
+     * this helper function adds a comp mnemonic, and its commuted form for + & |
+     *
+     * @param mnemonic
+     * @param bits
+     */
+    private static void addComp(String mnemonic, int bits) {
+        COMP.put(mnemonic, bits);
+        if (mnemonic.length() == 3 && "+&|".indexOf(mnemonic.charAt(1)) >= 0 && mnemonic.charAt(2) != '1') {
+            COMP.put("" + mnemonic.charAt(2) + mnemonic.charAt(1) + mnemonic.charAt(0), bits);
+        }
+    }
+
+    /**
+     * @param mnemonic - at most 3 characters
+     * @return the characters and the length packed into an int
+     */
+    private static int pack(String mnemonic) {
+        int key = mnemonic.length() << 24;
+        for (int i = 0; i < mnemonic.length(); i++) {
+            key |= (mnemonic.charAt(i) & 0xff) << (16 - 8 * i);
+        }
+        return key;
+    }
+
+    /**
+     * this function translates Hack assembly into machine code
+     *
+     * @param code - the assembly code, one instruction or label per line
+     * @return the instructions, one 16-bit word per element
+     * @throws IllegalArgumentException if a line is not legal Hack assembly
+     */
+    public static int[] assemble(String code) {
+        return assemble(Arrays.asList(new AsmBuffer(code.length()).append(code)));
+    }
+
+    /**
+     * this function translates the generated code into machine code in one pass
+     * over its bytes, without converting it to text. a label that is used before
+     * it is defined is kept in a chain of the words that refer to it, and the chain
+     * is patched when the label is defined. the symbols that are never defined are
+     * variables (the statics, FileName.i) and get addresses from 16 in the order
+     * they first appear, like the assembler of the course gives them
+     *
+     * @param fragments - the code of the bootstrap and of each vm file, in order
+     * @return the instructions, one 16-bit word per element
+     * @throws IllegalArgumentException if a line is not legal Hack assembly
+     */
+    public static int[] assemble(List<AsmBuffer> fragments) {
+        Encoder encoder = new Encoder();
+        for (AsmBuffer fragment : fragments) {
+            encoder.encode(fragment.array(), fragment.length());
+        }
+        return encoder.finish();
+    }
+
+    /**
+     * this function encodes a C-instruction
+     *
+     * @param line - dest=comp;jump, where dest and jump are optional
+     * @return the instruction
+     * @throws IllegalArgumentException if the instruction is not legal
+     */
+    public static int encode(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+        int word = encodeC(bytes, 0, bytes.length);
+        if (word < 0) {
+            throw new IllegalArgumentException("This is not a legal instruction: " + line);
+        }
+        return word;
+    }
+
+    /**
+     * @return the instruction of the bytes [start, end), or -1 if it is not legal
+     */
+    private static int encodeC(byte[] bytes, int start, int end) {
+        int equals = -1;
+        int semicolon = end;
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == '=' && equals < 0) {
+                equals = i;
+            } else if (bytes[i] == ';') {
+                semicolon = i;
+                break;
+            }
+        }
+        int dest = 0;
+        for (int i = start; i < equals; i++) {
+            int bit = bytes[i] == 'A' ? 4 : bytes[i] == 'D' ? 2 : bytes[i] == 'M' ? 1 : -1;
+            if (bit < 0) {
+                return -1;
+            }
+            dest |= bit;
+        }
+        int compStart = equals < 0 ? start : equals + 1;
+        int comp = Arrays.binarySearch(compKeys, pack(bytes, compStart, semicolon));
+        int jump = semicolon == end ? 0 : indexOf(jumpKeys, pack(bytes, semicolon + 1, end));
+        if (comp < 0 || jump < 0) {
+            return -1;
+        }
+        return 0xe000 | compValues[comp] << 6 | dest << 3 | jump;
+    }
+
+    private static int pack(byte[] bytes, int start, int end) {
+        int length = end - start;
+        if (length < 1 || length > 3) {
+            return -1;
+        }
+        int key = length << 24;
+        for (int i = 0; i < length; i++) {
+            key |= (bytes[start + i] & 0xff) << (16 - 8 * i);
+        }
+        return key;
+    }
+
+    private static int indexOf(int[] keys, int key) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * this function writes machine code as a .hack file: one line of 16 binary
+     * digits per instruction
+     *
+     * @param file
+     * @param rom
+     * @throws IOException
+     */
+    public static void writeHack(File file, int[] rom) throws IOException {
+        byte[] text = new byte[rom.length * 17];
+        int pos = 0;
+        for (int word : rom) {
+            for (int bit = 15; bit >= 0; bit--) {
+                text[pos++] = (byte) ((word >> bit & 1) == 0 ? '0' : '1');
+            }
+            text[pos++] = '\n';
+        }
+        Files.write(file.toPath(), text);
+    }
+
+    /**
+     * this function writes machine code as raw binary: two bytes per instruction,
+     * the high byte first
+     *
+     * @param file
+     * @param rom
+     * @throws IOException
+     */
+    public static void writeBinary(File file, int[] rom) throws IOException {
+        byte[] bytes = new byte[rom.length * 2];
+        for (int i = 0; i < rom.length; i++) {
+            bytes[2 * i] = (byte) (rom[i] >> 8);
+            bytes[2 * i + 1] = (byte) rom[i];
+        }
+        Files.write(file.toPath(), bytes);
+    }
+
+    /**
+     * this function loads a program: machine code from a .hack or a raw binary
+     * (.bin) file, or assembly from any other file
+     *
+     * @param file
+     * @return the instructions
+     * @throws IOException
+     */
+    public static int[] load(File file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        String name = file.getName();
+        if (name.endsWith(".bin")) {
+            int[] rom = new int[bytes.length / 2];
+            for (int i = 0; i < rom.length; i++) {
+                rom[i] = (bytes[2 * i] & 0xff) << 8 | bytes[2 * i + 1] & 0xff;
+            }
+            return checkSize(rom);
+        }
+        String text = new String(bytes, StandardCharsets.US_ASCII);
+        if (name.endsWith(".hack")) {
+            return checkSize(text.lines().filter(line -> !line.isBlank())
+                    .mapToInt(line -> Integer.parseInt(line.strip(), 2)).toArray());
+        }
+        return assemble(text);
+    }
+
+    /**
+     * @param rom
+     * @return the machine code, if it fits in the ROM
+     * @throws IllegalArgumentException if it does not
+     */
+    private static int[] checkSize(int[] rom) {
+        if (rom.length > ROM_SIZE) {
+            throw new IllegalArgumentException(
+                    "Program too large: " + rom.length + " words, the ROM holds " + ROM_SIZE);
+        }
+        return rom;
+    }
+
+    /**
+     * @return the predefined symbols of the Hack platform
+     */
+    private static Map<String, Integer> predefined() {
+        Map<String, Integer> symbols = new HashMap<>();
+        symbols.put("SP", 0);
+        symbols.put("LCL", 1);
+        symbols.put("ARG", 2);
+        symbols.put("THIS", 3);
+        symbols.put("THAT", 4);
+        for (int i = 0; i < 16; i++) {
+            symbols.put("R" + i, i);
+        }
+        symbols.put("SCREEN", 16384);
+        symbols.put("KBD", 24576);
+        return symbols;
+    }
+
+    /**
+     * the one-pass encoder. its symbol table is an open-addressing table over the
+     * bytes of the symbols, so a symbol is only copied the first time it appears
+     */
+    private static class Encoder {
+        private int[] rom = new int[1 << 12];
+        private int size = 0;
+
+        // the symbol table
+        private byte[][] keys = new byte[1 << 10][];
+        private int[] slots = new int[1 << 10];
+        private int count = 0;
+        // per symbol, in the order of first appearance
+        private int[] address = new int[1 << 9];
+        // the last word that refers to the undefined symbol, -1 if none. every such
+        // word holds the position of the previous one until it is patched
+        private int[] chain = new int[1 << 9];
+
+        Encoder() {
+            Arrays.fill(slots, -1);
+            for (Map.Entry<String, Integer> symbol : predefined().entrySet()) {
+                byte[] name = symbol.getKey().getBytes(StandardCharsets.US_ASCII);
+                address[lookup(name, 0, name.length)] = symbol.getValue();
+            }
+        }
+
+        void encode(byte[] bytes, int length) {
+            int pos = 0;
+            while (pos < length) {
+                int end = pos;
+                while (end < length && bytes[end] != '\n') {
+                    end++;
+                }
+                line(bytes, pos, end);
+                pos = end + 1;
+            }
+        }
+
+        private void line(byte[] bytes, int start, int end) {
+            // strip the comment and the whitespace
+            for (int i = start; i + 1 < end; i++) {
+                if (bytes[i] == '/' && bytes[i + 1] == '/') {
+                    end = i;
+                    break;
+                }
+            }
+            while (start < end && bytes[start] <= ' ') {
+                start++;
+            }
+            while (end > start && bytes[end - 1] <= ' ') {
+                end--;
+            }
+            if (start == end) {
+                return;
+            }
+            if (bytes[start] == '(') {
+                define(bytes, start + 1, end - 1);
+                return;
+            }
+            if (size == rom.length) {
+                rom = Arrays.copyOf(rom, size * 2);
+            }
+            if (bytes[start] == '@') {
+                if (start + 1 == end) {
+                    throw illegal(bytes, start, end);
+                }
+                if (bytes[start + 1] >= '0' && bytes[start + 1] <= '9') {
+                    // a constant has 15 bits, the top bit makes a C-instruction
+                    int value = 0;
+                    for (int i = start + 1; i < end; i++) {
+                        if (bytes[i] < '0' || bytes[i] > '9') {
+                            throw illegal(bytes, start, end);
+                        }
+                        value = value * 10 + (bytes[i] - '0');
+                        if (value > 0x7fff) {
+                            throw illegal(bytes, start, end);
+                        }
+                    }
+                    rom[size++] = value;
+                    return;
+                }
+                start++;
+                int symbol = lookup(bytes, start, end);
+                if (address[symbol] >= 0) {
+                    rom[size] = address[symbol];
+                } else {
+                    rom[size] = chain[symbol];
+                    chain[symbol] = size;
+                }
+                size++;
+                return;
+            }
+            int word = encodeC(bytes, start, end);
+            if (word < 0) {
+                throw illegal(bytes, start, end);
+            }
+            rom[size++] = word;
+        }
+
+        private static IllegalArgumentException illegal(byte[] bytes, int start, int end) {
+            return new IllegalArgumentException("This is not a legal instruction: "
+                    + new String(bytes, start, end - start, StandardCharsets.US_ASCII));
+        }
+
+        private void define(byte[] bytes, int start, int end) {
+            int symbol = lookup(bytes, start, end);
+            if (address[symbol] >= 0) {
+                throw new IllegalArgumentException("Duplicate label: "
+                        + new String(bytes, start, end - start, StandardCharsets.US_ASCII));
+            }
+            if (size >= ROM_SIZE) {
+                // an A-instruction cannot hold the address, its top bit would make it a C-instruction
+                throw new IllegalArgumentException("Label out of the ROM: "
+                        + new String(bytes, start, end - start, StandardCharsets.US_ASCII) + " at " + size
+                        + ", the ROM holds " + ROM_SIZE + " words");
+            }
+            address[symbol] = size;
+            patch(symbol);
+        }
+
+        private void patch(int symbol) {
+            for (int word = chain[symbol]; word >= 0;) {
+                int previous = rom[word];
+                rom[word] = address[symbol];
+                word = previous;
+            }
+            chain[symbol] = -1;
+        }
+
+        /**
+         * @return the index of the symbol, added to the table as undefined if new
+         */
+        private int lookup(byte[] bytes, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + bytes[i];
+            }
+            int mask = slots.length - 1;
+            int slot = hash & mask;
+            while (slots[slot] >= 0) {
+                byte[] key = keys[slots[slot]];
+                if (Arrays.equals(key, 0, key.length, bytes, start, end)) {
+                    return slots[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (count == address.length) {
+                address = Arrays.copyOf(address, count * 2);
+                chain = Arrays.copyOf(chain, count * 2);
+            }
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+            }
+            keys[count] = Arrays.copyOfRange(bytes, start, end);
+            address[count] = -1;
+            chain[count] = -1;
+            slots[slot] = count;
+            if (++count * 2 > slots.length) {
+                rehash();
+            }
+            return count - 1;
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            Arrays.fill(slots, -1);
+            int mask = slots.length - 1;
+            for (int symbol = 0; symbol < count; symbol++) {
+                int hash = 0;
+                for (byte b : keys[symbol]) {
+                    hash = 31 * hash + b;
+                }
+                int slot = hash & mask;
+                while (slots[slot] >= 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = symbol;
+            }
+        }
+
+        int[] finish() {
+            // the symbols that were never defined are variables
+            int next = VARIABLE_BASE;
+            for (int symbol = 0; symbol < count; symbol++) {
+                if (address[symbol] < 0) {
+                    address[symbol] = next++;
+                    patch(symbol);
+                }
+            }
+            return checkSize(Arrays.copyOf(rom, size));
+        }
+    }
+}
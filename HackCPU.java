@@ -0,0 +1,205 @@
+import java.io.File;
+import java.io.IOException;
+
+public class HackCPU {
+    // the size of the data memory, including the screen and the keyboard
+    public static final int RAM_SIZE = 32768;
+    // the heap of the Jack OS, where the benchmarks leave their results
+    public static final int HEAP_BASE = 2048;
+    public static final int HEAP_END = 16384;
+
+    // the reasons the cpu stopped
+    public static final int HALTED = 0;
+    public static final int BUDGET = 1;
+    public static final int END_OF_ROM = 2;
+
+    private int[] rom;
+    private short[] ram;
+    private int pc;
+    private int a;
+    private int d;
+    private long cycles;
+
+    /**
+     * constructor of the cpu
+     *
+     * @param rom - the machine code, one instruction per element
+     */
+    public HackCPU(int[] rom) {
+        this.rom = rom;
+        this.ram = new short[RAM_SIZE];
+        reset();
+    }
+
+    /**
+     * this method sets the program counter and the registers to 0, without
+     * clearing the memory
+     */
+    public void reset() {
+        pc = 0;
+        a = 0;
+        d = 0;
+        cycles = 0;
+    }
+
+    /**
+     * this method executes instructions until the program halts, the budget of
+     * cycles is spent or the program counter leaves the ROM.
+     * a program halts when it jumps to an @ instruction that loads its own address
+     * and jumps to it, which is how the vm code "label END goto END" is translated
+     *
+     * @param budget - the maximal number of instructions to execute
+     * @return HALTED, BUDGET or END_OF_ROM
+     */
+    public int run(long budget) {
+        int[] rom = this.rom;
+        short[] ram = this.ram;
+        int pc = this.pc;
+        int a = this.a;
+        int d = this.d;
+        long cycles = this.cycles;
+        int status = BUDGET;
+        while (cycles < budget) {
+            if (pc >= rom.length) {
+                status = END_OF_ROM;
+                break;
+            }
+            int instruction = rom[pc];
+            cycles++;
+            if ((instruction & 0x8000) == 0) {
+                a = instruction;
+                pc++;
+                continue;
+            }
+            // the ALU: zx nx zy ny f no
+            int x = d;
+            int y = (instruction & 0x1000) != 0 ? ram[a & 0x7fff] : a;
+            if ((instruction & 0x0800) != 0) {
+                x = 0;
+            }
+            if ((instruction & 0x0400) != 0) {
+                x = ~x;
+            }
+            if ((instruction & 0x0200) != 0) {
+                y = 0;
+            }
+            if ((instruction & 0x0100) != 0) {
+                y = ~y;
+            }
+            int out = (instruction & 0x0080) != 0 ? x + y : x & y;
+            if ((instruction & 0x0040) != 0) {
+                out = ~out;
+            }
+            out = (short) out;
+            // M is written with the old value of A
+            if ((instruction & 0x0008) != 0) {
+                ram[a & 0x7fff] = (short) out;
+            }
+            if ((instruction & 0x0010) != 0) {
+                d = out;
+            }
+            int target = a;
+            if ((instruction & 0x0020) != 0) {
+                a = out;
+            }
+            boolean jump = ((instruction & 0x4) != 0 && out < 0) || ((instruction & 0x2) != 0 && out == 0)
+                    || ((instruction & 0x1) != 0 && out > 0);
+            if (!jump) {
+                pc++;
+                continue;
+            }
+            target &= 0x7fff;
+            if (target == pc - 1 && rom[target] == target) {
+                status = HALTED;
+                break;
+            }
+            pc = target;
+        }
+        this.pc = pc;
+        this.a = a;
+        this.d = d;
+        this.cycles = cycles;
+        return status;
+    }
+
+    /**
+     * @return the number of instructions executed since the last reset
+     */
+    public long getCycles() {
+        return cycles;
+    }
+
+    public int getPC() {
+        return pc;
+    }
+
+    public int getRomSize() {
+        return rom.length;
+    }
+
+    /**
+     * @param address
+     * @return the value of a memory word
+     */
+    public int peek(int address) {
+        return ram[address];
+    }
+
+    /**
+     * @param address
+     * @param value
+     */
+    public void poke(int address, int value) {
+        ram[address] = (short) value;
+    }
+
+    /**
+     * @param from
+     * @param to
+     * @return a hash of the memory words in [from, to)
+     */
+    public int checksum(int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + ram[i];
+        }
+        return hash;
+    }
+
+    /**
+     * @param status
+     * @return the name of a status returned by run()
+     */
+    public static String statusName(int status) {
+        return status == HALTED ? "halted" : status == BUDGET ? "budget exhausted" : "end of ROM";
+    }
+
+    /**
+     * this function loads a program (an asm file, or machine code from a .hack or
+     * .bin file) and runs it headless, then prints the cycles, the stack pointer
+     * and a checksum of the heap.
+     * usage: java HackCPU file.asm|file.hack|file.bin [-budget cycles]
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Error: No asm file provided");
+            return;
+        }
+        long budget = 100_000_000L;
+        if (args.length >= 3 && args[1].equals("-budget")) {
+            budget = Long.parseLong(args[2]);
+        }
+        try {
+            HackCPU cpu = new HackCPU(HackAssembler.load(new File(args[0])));
+            int status = cpu.run(budget);
+            System.out.println("ROM: " + cpu.getRomSize() + " instructions");
+            System.out.println("Cycles: " + cpu.getCycles() + " (" + statusName(status) + ")");
+            System.out.println("SP: " + cpu.peek(0));
+            System.out.println("Heap checksum: " + Integer.toHexString(cpu.checksum(HEAP_BASE, HEAP_END)));
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,350 @@
+import java.io.File;
+import java.util.Arrays;
+
+public class IR {
+    // the opcodes of the vm commands
+    public static final int PUSH = 0;
+    public static final int POP = 1;
+    public static final int ARITHMETIC = 2;
+    public static final int LABEL = 3;
+    public static final int GOTO = 4;
+    public static final int IF = 5;
+    public static final int FUNCTION = 6;
+    public static final int CALL = 7;
+    public static final int RETURN = 8;
+    // opcodes produced by the passes
+    // a comparison (arg) followed by if-goto (symbol), negated when index is 1
+    public static final int COMPARE_IF = 9;
+    // a command that was removed by a pass, dropped by compact()
+    public static final int NOP = 10;
+    // a call (symbol, index = nArgs) followed by return, which reuses the frame
+    public static final int TAIL_CALL = 11;
+
+    // the ids of arithmetic commands (arg of ARITHMETIC)
+    public static final int ADD = 0;
+    public static final int SUB = 1;
+    public static final int NEG = 2;
+    public static final int EQ = 3;
+    public static final int GT = 4;
+    public static final int LT = 5;
+    public static final int AND = 6;
+    public static final int OR = 7;
+    public static final int NOT = 8;
+
+    // no symbol (symbol of PUSH, POP, ARITHMETIC and RETURN)
+    public static final int NO_SYMBOL = -1;
+
+    private final String name;
+    private final File source;
+    private int[] op;
+    private int[] arg;
+    private int[] index;
+    private int[] symbol;
+    private int[] line;
+    private int size;
+
+    /**
+     * constructor of an empty unit
+     *
+     * @param source - the vm file of the unit
+     */
+    public IR(File source) {
+        this.source = source;
+        String fileName = source.getName();
+        int fileNameExtensionIndex = fileName.lastIndexOf(".");
+        this.name = fileNameExtensionIndex < 0 ? fileName : fileName.substring(0, fileNameExtensionIndex);
+        this.op = new int[64];
+        this.arg = new int[64];
+        this.index = new int[64];
+        this.symbol = new int[64];
+        this.line = new int[64];
+        this.size = 0;
+    }
+
+    /**
+     * this method appends a command to the unit
+     *
+     * @param op     - the opcode
+     * @param arg    - the segment id of PUSH/POP, the arithmetic id of ARITHMETIC
+     * @param index  - the index of PUSH/POP, nArgs of CALL, nVars of FUNCTION
+     * @param symbol - the symbol id of LABEL, GOTO, IF, FUNCTION and CALL
+     * @param line   - the line of the command in the vm file
+     * @return the position of the command
+     */
+    public int add(int op, int arg, int index, int symbol, int line) {
+        if (size == this.op.length) {
+            int capacity = size * 2;
+            this.op = Arrays.copyOf(this.op, capacity);
+            this.arg = Arrays.copyOf(this.arg, capacity);
+            this.index = Arrays.copyOf(this.index, capacity);
+            this.symbol = Arrays.copyOf(this.symbol, capacity);
+            this.line = Arrays.copyOf(this.line, capacity);
+        }
+        this.op[size] = op;
+        this.arg[size] = arg;
+        this.index[size] = index;
+        this.symbol[size] = symbol;
+        this.line[size] = line;
+        return size++;
+    }
+
+    /**
+     * this method replaces the command at the given position, keeping its line
+     *
+     * @param i
+     * @param op
+     * @param arg
+     * @param index
+     * @param symbol
+     */
+    public void set(int i, int op, int arg, int index, int symbol) {
+        this.op[i] = op;
+        this.arg[i] = arg;
+        this.index[i] = index;
+        this.symbol[i] = symbol;
+    }
+
+    /**
+     * this method marks the command at the given position as removed
+     *
+     * @param i
+     */
+    public void remove(int i) {
+        op[i] = NOP;
+    }
+
+    /**
+     * this method drops the removed commands
+     */
+    public void compact() {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (op[i] == NOP) {
+                continue;
+            }
+            op[kept] = op[i];
+            arg[kept] = arg[i];
+            index[kept] = index[i];
+            symbol[kept] = symbol[i];
+            line[kept] = line[i];
+            kept++;
+        }
+        size = kept;
+    }
+
+    /**
+     * this method replaces all the commands of this unit with the commands of
+     * another unit, for passes that rebuild a unit
+     *
+     * @param other
+     */
+    public void assign(IR other) {
+        op = other.op;
+        arg = other.arg;
+        index = other.index;
+        symbol = other.symbol;
+        line = other.line;
+        size = other.size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int op(int i) {
+        return op[i];
+    }
+
+    public int arg(int i) {
+        return arg[i];
+    }
+
+    public int index(int i) {
+        return index[i];
+    }
+
+    public int symbol(int i) {
+        return symbol[i];
+    }
+
+    public int line(int i) {
+        return line[i];
+    }
+
+    /**
+     * @return the name of the vm file without its extension
+     */
+    public String getName() {
+        return name;
+    }
+
+    public File getSource() {
+        return source;
+    }
+
+    /**
+     * @param i
+     * @return true if the command is eq, gt or lt
+     */
+    public boolean isComparison(int i) {
+        return op[i] == ARITHMETIC && (arg[i] == EQ || arg[i] == GT || arg[i] == LT);
+    }
+
+    /**
+     * @param op
+     * @return the command type a command with the given opcode was parsed from:
+     *         a fused comparison and if-goto is an if-goto and a tail call is a
+     *         call. null for a command that was dropped
+     */
+    public static commandType commandType(int op) {
+        switch (op) {
+            case PUSH:
+                return commandType.C_PUSH;
+            case POP:
+                return commandType.C_POP;
+            case ARITHMETIC:
+                return commandType.C_ARITHMETIC;
+            case LABEL:
+                return commandType.C_LABEL;
+            case GOTO:
+                return commandType.C_GOTO;
+            case IF:
+            case COMPARE_IF:
+                return commandType.C_IF;
+            case FUNCTION:
+                return commandType.C_FUNCTION;
+            case CALL:
+            case TAIL_CALL:
+                return commandType.C_CALL;
+            case RETURN:
+                return commandType.C_RETURN;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * this function reads a whole vm file into a unit
+     *
+     * @param parser
+     * @param source  - the vm file
+     * @param program - the program that owns the symbols
+     * @return the unit
+     * @throws java.io.IOException
+     */
+    public static IR read(VMParser parser, File source, Program program) throws java.io.IOException {
+        if (parser instanceof MappedParser) {
+            return read((MappedParser) parser, source, program);
+        }
+        IR unit = new IR(source);
+        while (parser.hasMoreLines()) {
+            parser.advance();
+            int line = parser.lineNumber();
+            switch (parser.commandType()) {
+                case C_ARITHMETIC:
+                    unit.add(ARITHMETIC, arithmeticId(parser.arg1()), 0, NO_SYMBOL, line);
+                    break;
+                case C_PUSH:
+                    unit.add(PUSH, segmentId(parser.arg1()), parser.arg2(), NO_SYMBOL, line);
+                    break;
+                case C_POP:
+                    unit.add(POP, segmentId(parser.arg1()), parser.arg2(), NO_SYMBOL, line);
+                    break;
+                case C_LABEL:
+                    unit.add(LABEL, 0, 0, program.symbol(parser.arg1()), line);
+                    break;
+                case C_GOTO:
+                    unit.add(GOTO, 0, 0, program.symbol(parser.arg1()), line);
+                    break;
+                case C_IF:
+                    unit.add(IF, 0, 0, program.symbol(parser.arg1()), line);
+                    break;
+                case C_FUNCTION:
+                    unit.add(FUNCTION, 0, parser.arg2(), program.symbol(parser.arg1()), line);
+                    break;
+                case C_CALL:
+                    unit.add(CALL, 0, parser.arg2(), program.symbol(parser.arg1()), line);
+                    break;
+                case C_RETURN:
+                    unit.add(RETURN, 0, 0, NO_SYMBOL, line);
+                    break;
+            }
+        }
+        return unit;
+    }
+
+    /**
+     * this function reads a whole vm file into a unit straight from the command
+     * record of a MappedParser: the operation and segment ids are taken as they
+     * are, and the symbols are looked up by their bytes, so no string is built
+     * or compared for a command
+     *
+     * @param parser
+     * @param source  - the vm file
+     * @param program - the program that owns the symbols
+     * @return the unit
+     * @throws java.io.IOException
+     */
+    private static IR read(MappedParser parser, File source, Program program) throws java.io.IOException {
+        IR unit = new IR(source);
+        while (parser.hasMoreLines()) {
+            int line = parser.lineNumber();
+            switch (parser.commandType()) {
+                case C_ARITHMETIC:
+                    unit.add(ARITHMETIC, parser.operation(), 0, NO_SYMBOL, line);
+                    break;
+                case C_PUSH:
+                    unit.add(PUSH, parser.segment(), parser.arg2(), NO_SYMBOL, line);
+                    break;
+                case C_POP:
+                    unit.add(POP, parser.segment(), parser.arg2(), NO_SYMBOL, line);
+                    break;
+                case C_LABEL:
+                    unit.add(LABEL, 0, 0, parser.symbol(program), line);
+                    break;
+                case C_GOTO:
+                    unit.add(GOTO, 0, 0, parser.symbol(program), line);
+                    break;
+                case C_IF:
+                    unit.add(IF, 0, 0, parser.symbol(program), line);
+                    break;
+                case C_FUNCTION:
+                    unit.add(FUNCTION, 0, parser.arg2(), parser.symbol(program), line);
+                    break;
+                case C_CALL:
+                    unit.add(CALL, 0, parser.arg2(), parser.symbol(program), line);
+                    break;
+                case C_RETURN:
+                    unit.add(RETURN, 0, 0, NO_SYMBOL, line);
+                    break;
+            }
+        }
+        return unit;
+    }
+
+    /**
+     * @param command - add, sub, etc.
+     * @return the arithmetic id of the command
+     */
+    public static int arithmeticId(String command) {
+        for (int i = 0; i < MappedParser.ARITHMETIC.length; i++) {
+            if (MappedParser.ARITHMETIC[i].equals(command)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("This is not an arithmetic command: " + command);
+    }
+
+    /**
+     * @param segment - local, argument, etc.
+     * @return the segment id
+     */
+    public static int segmentId(String segment) {
+        for (int i = 0; i < MappedParser.SEGMENTS.length; i++) {
+            if (MappedParser.SEGMENTS[i].equals(segment)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("This is not a segment: " + segment);
+    }
+}
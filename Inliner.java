@@ -0,0 +1,306 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Inliner implements Pass {
+    // the words of the temp segment
+    private static final int TEMP_SIZE = 8;
+
+    // the largest body, in vm commands without the return, that is inlined
+    private int maxSize;
+    // the counts of a run, null to inline every call of a small leaf
+    private Profile profile;
+    private List<String> inlined;
+    // numbers the inlined bodies, so that their labels are unique
+    private int sites;
+
+    /**
+     * constructor of the pass
+     */
+    public Inliner() {
+        this.maxSize = new Options().inlineSize;
+        this.inlined = new ArrayList<>();
+    }
+
+    public String name() {
+        return "inline";
+    }
+
+    public boolean wholeProgram() {
+        return true;
+    }
+
+    public void configure(Options options) {
+        maxSize = options.inlineSize;
+        profile = options.profileUse;
+    }
+
+    /**
+     * this method replaces the calls of small leaf functions with their body.
+     * a function is inlined if it has no call, at most maxSize commands and one
+     * return at its end with exactly one value on its stack there, and if it uses
+     * no static of another file than the caller.
+     * at the call site the arguments are popped and the locals zeroed into the
+     * temp words the body does not use, and argument/local accesses are mapped
+     * onto them. the vm gives no guarantee that temp survives a call, so the
+     * caller cannot hold anything there. if the body sets THIS or THAT, the
+     * caller's pointer is saved in a temp word as well and restored after it.
+     * labels of the body are renamed to callee$label$site, which cannot collide
+     * with a label of the vm code.
+     * with recorded counts only the hot call sites are inlined, and they take
+     * bodies of up to twice maxSize
+     *
+     * @param program
+     */
+    public void run(Program program) {
+        Map<Integer, Leaf> leaves = new HashMap<>();
+        int limit = profile == null ? maxSize : 2 * maxSize;
+        for (IR unit : program.getUnits()) {
+            findLeaves(unit, leaves, limit);
+        }
+        if (leaves.isEmpty()) {
+            return;
+        }
+        for (IR unit : program.getUnits()) {
+            IR result = new IR(unit.getSource());
+            boolean changed = false;
+            int caller = IR.NO_SYMBOL;
+            for (int i = 0; i < unit.size(); i++) {
+                if (unit.op(i) == IR.FUNCTION) {
+                    caller = unit.symbol(i);
+                }
+                Leaf leaf = unit.op(i) == IR.CALL ? leaves.get(unit.symbol(i)) : null;
+                if (leaf != null && profile != null && !profile.isHot(profile.count(unit, i))) {
+                    // a cold call keeps the smaller code
+                    leaf = null;
+                }
+                if (leaf != null && expand(leaf, unit, unit.index(i), unit.line(i), result, program)) {
+                    inlined.add(program.symbolName(leaf.name) + " into "
+                            + (caller == IR.NO_SYMBOL ? unit.getName() : program.symbolName(caller)) + " ("
+                            + unit.getSource().getName() + " line " + unit.line(i) + ")");
+                    changed = true;
+                    continue;
+                }
+                result.add(unit.op(i), unit.arg(i), unit.index(i), unit.symbol(i), unit.line(i));
+            }
+            if (changed) {
+                unit.assign(result);
+            }
+        }
+    }
+
+    /**
+     * this helper function finds the functions of a unit that can be inlined
+     *
+     * @param unit
+     * @param leaves - the leaves by function symbol
+     * @param limit  - the largest body
+     */
+    private void findLeaves(IR unit, Map<Integer, Leaf> leaves, int limit) {
+        for (int i = 0; i < unit.size(); i++) {
+            if (unit.op(i) != IR.FUNCTION) {
+                continue;
+            }
+            int end = i + 1;
+            while (end < unit.size() && unit.op(end) != IR.FUNCTION) {
+                end++;
+            }
+            Leaf leaf = leaf(unit, i, end, limit);
+            if (leaf != null) {
+                leaves.put(leaf.name, leaf);
+            }
+        }
+    }
+
+    /**
+     * @param unit
+     * @param function - the position of the function command
+     * @param end      - the position after its last command
+     * @param limit    - the largest body
+     * @return the leaf function, or null if it cannot be inlined
+     */
+    private Leaf leaf(IR unit, int function, int end, int limit) {
+        int size = end - function - 2;
+        if (size < 0 || size > limit || unit.op(end - 1) != IR.RETURN) {
+            return null;
+        }
+        Leaf leaf = new Leaf(unit, unit.symbol(function), unit.index(function));
+        // the stack depth of the body, which has to be known at every label
+        Map<Integer, Integer> labelDepths = new HashMap<>();
+        int depth = 0;
+        // false after a goto, until the next label
+        boolean reached = true;
+        for (int i = function + 1; i < end - 1; i++) {
+            int op = unit.op(i);
+            int arg = unit.arg(i);
+            if (!reached && op != IR.LABEL) {
+                // dead code after a goto
+                return null;
+            }
+            leaf.body.add(op, arg, unit.index(i), unit.symbol(i), unit.line(i));
+            switch (op) {
+                case IR.PUSH:
+                case IR.POP:
+                    if (arg == MappedParser.SEG_ARGUMENT) {
+                        leaf.arguments = Math.max(leaf.arguments, unit.index(i) + 1);
+                    } else if (arg == MappedParser.SEG_LOCAL && unit.index(i) >= leaf.locals) {
+                        return null;
+                    } else if (arg == MappedParser.SEG_TEMP && unit.index(i) < TEMP_SIZE) {
+                        leaf.usedTemps[unit.index(i)] = true;
+                    } else if (arg == MappedParser.SEG_STATIC) {
+                        leaf.usesStatics = true;
+                    } else if (arg == MappedParser.SEG_POINTER && op == IR.POP && unit.index(i) < 2) {
+                        leaf.setsPointer[unit.index(i)] = true;
+                    } else if (arg == MappedParser.SEG_TEMP || arg == MappedParser.SEG_POINTER) {
+                        return null;
+                    }
+                    depth += op == IR.PUSH ? 1 : -1;
+                    break;
+                case IR.ARITHMETIC:
+                    depth -= arg == IR.NEG || arg == IR.NOT ? 0 : 1;
+                    break;
+                case IR.COMPARE_IF:
+                    depth -= 2;
+                    break;
+                case IR.IF:
+                    depth -= 1;
+                    break;
+                case IR.LABEL:
+                    Integer known = labelDepths.get(unit.symbol(i));
+                    if (!reached && known == null) {
+                        // only reached by a jump back from below
+                        return null;
+                    }
+                    if (!reached) {
+                        depth = known;
+                        reached = true;
+                    } else if (known != null && known != depth) {
+                        return null;
+                    }
+                    labelDepths.put(unit.symbol(i), depth);
+                    break;
+                case IR.GOTO:
+                    break;
+                default:
+                    // a call, a return in the middle or a nop
+                    return null;
+            }
+            if (depth < 0) {
+                return null;
+            }
+            if (op == IR.GOTO || op == IR.IF || op == IR.COMPARE_IF) {
+                Integer known = labelDepths.get(unit.symbol(i));
+                if (known != null && known != depth) {
+                    return null;
+                }
+                labelDepths.put(unit.symbol(i), depth);
+            }
+            if (op == IR.GOTO) {
+                // the next command is only reached through its label
+                reached = false;
+            }
+        }
+        if (!reached || depth != 1) {
+            return null;
+        }
+        return leaf;
+    }
+
+    /**
+     * this helper function writes the body of a leaf in place of a call to it
+     *
+     * @param leaf
+     * @param caller - the unit of the call
+     * @param nArgs  - the number of arguments of the call
+     * @param line   - the line of the call, given to the inlined commands
+     * @param out    - the commands of the caller so far
+     * @param program
+     * @return false if this call cannot be inlined
+     */
+    private boolean expand(Leaf leaf, IR caller, int nArgs, int line, IR out, Program program) {
+        if (leaf.arguments > nArgs || (leaf.usesStatics && leaf.unit != caller)) {
+            return false;
+        }
+        // the temp words of the arguments, then the locals, then the saved pointers
+        int[] slots = new int[nArgs + leaf.locals + (leaf.setsPointer[0] ? 1 : 0) + (leaf.setsPointer[1] ? 1 : 0)];
+        int free = 0;
+        for (int t = TEMP_SIZE - 1; t >= 0 && free < slots.length; t--) {
+            if (!leaf.usedTemps[t]) {
+                slots[free++] = t;
+            }
+        }
+        if (free < slots.length) {
+            return false;
+        }
+        int site = sites++;
+        for (int a = nArgs - 1; a >= 0; a--) {
+            out.add(IR.POP, MappedParser.SEG_TEMP, slots[a], IR.NO_SYMBOL, line);
+        }
+        for (int l = 0; l < leaf.locals; l++) {
+            out.add(IR.PUSH, MappedParser.SEG_CONSTANT, 0, IR.NO_SYMBOL, line);
+            out.add(IR.POP, MappedParser.SEG_TEMP, slots[nArgs + l], IR.NO_SYMBOL, line);
+        }
+        int saved = nArgs + leaf.locals;
+        for (int p = 0, slot = saved; p < 2; p++) {
+            if (leaf.setsPointer[p]) {
+                out.add(IR.PUSH, MappedParser.SEG_POINTER, p, IR.NO_SYMBOL, line);
+                out.add(IR.POP, MappedParser.SEG_TEMP, slots[slot++], IR.NO_SYMBOL, line);
+            }
+        }
+        IR unit = leaf.body;
+        String prefix = program.symbolName(leaf.name) + "$";
+        for (int i = 0; i < unit.size(); i++) {
+            int arg = unit.arg(i);
+            int index = unit.index(i);
+            int symbol = unit.symbol(i);
+            if (unit.op(i) == IR.PUSH || unit.op(i) == IR.POP) {
+                if (arg == MappedParser.SEG_ARGUMENT) {
+                    arg = MappedParser.SEG_TEMP;
+                    index = slots[index];
+                } else if (arg == MappedParser.SEG_LOCAL) {
+                    arg = MappedParser.SEG_TEMP;
+                    index = slots[nArgs + index];
+                }
+            } else if (symbol != IR.NO_SYMBOL) {
+                symbol = program.symbol(prefix + program.symbolName(symbol) + "$" + site);
+            }
+            out.add(unit.op(i), arg, index, symbol, line);
+        }
+        for (int p = 0, slot = saved; p < 2; p++) {
+            if (leaf.setsPointer[p]) {
+                out.add(IR.PUSH, MappedParser.SEG_TEMP, slots[slot++], IR.NO_SYMBOL, line);
+                out.add(IR.POP, MappedParser.SEG_POINTER, p, IR.NO_SYMBOL, line);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return one line per inlined call: the callee, the caller and where the
+     *         call was
+     */
+    public List<String> getInlined() {
+        return inlined;
+    }
+
+    // a function that can be inlined: a copy of its body without the return, and
+    // what the body uses
+    private static class Leaf {
+        IR unit;
+        IR body;
+        int name;
+        int locals;
+        int arguments;
+        boolean usesStatics;
+        boolean[] usedTemps = new boolean[TEMP_SIZE];
+        boolean[] setsPointer = new boolean[2];
+
+        Leaf(IR unit, int name, int locals) {
+            this.unit = unit;
+            this.body = new IR(unit.getSource());
+            this.name = name;
+            this.locals = locals;
+        }
+    }
+}
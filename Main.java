@@ -1,156 +1,692 @@
-import java.io.File;
-import java.io.IOException;
-import java.io.FileNotFoundException;
-
-public class Main {
-
-    public static void main(String[] args) {
-        // validate the input file
-        if (args.length == 0) {
-            System.out.println("Error: No command-line arguments provided");
-        }
-        String inputPath = args[0].trim();
-        File inputFile = new File(inputPath);
-        if (!inputFile.exists()) {
-            System.out.println("Error: file or directory not found");
-        }
-
-        try {
-            if (inputFile.isDirectory()) {
-                // Input is a directory, process all files in the directory into a single file
-                File[] files = inputFile.listFiles((dir, name) -> name.toLowerCase().endsWith(".vm"));
-                if (files != null) {
-                    processDir(files);
-                } else {
-                    System.out.println("Error: Unable to list files in the directory");
-                }
-            } else if (inputFile.isFile()) {
-                // Input is a single file
-                processFile(inputFile);
-            } else {
-                System.out.println("Error: Invalid input");
-            }
-        } catch (IOException e) {
-            System.out.println("ERROR: " + e);
-        }
-    }
-
-    /**
-     * this function translates a vm file to a new asm file
-     * it creates a new asm file in the same folder
-     * it constructs a parser to handle the input file and a code writer to handle
-     * the ouputfile
-     * then - iterates through the input file, parsing each line and generating code
-     * from it
-     * 
-     * @param sourceFile
-     * @throws IOException
-     */
-    private static void processFile(File sourceFile) throws IOException {
-        // create the output file - same as the original path with .asm suffix
-        String sourceAbsolutePath = sourceFile.getAbsolutePath();
-        String fileName = sourceFile.getName();
-        int fileNameExtensionIndex = fileName.lastIndexOf(".");
-        String fileNameNoExtension = fileName.substring(0, fileNameExtensionIndex);
-        int fileNameIndex = sourceFile.getAbsolutePath().indexOf(sourceFile.getName());
-        String sourceDirectory = sourceAbsolutePath.substring(0, fileNameIndex);
-        String outputFilePath = sourceDirectory + fileNameNoExtension + ".asm";
-        File outputFile = new File(outputFilePath);
-
-        // add the bootstrap to the output file
-        Bootstrap(outputFile, sourceFile);
-
-        // translating the vm file to the hack-assembly language
-        translator(sourceFile, outputFile);
-    }
-
-    /**
-     * this function takes a directory of vm files and translates them to one new
-     * asm file
-     * it creates a new asm file in the same folder
-     *
-     * @param dir - an array of files
-     * @throws IOException
-     */
-    private static void processDir(File[] dir) throws IOException {
-        // create the output file - same as the original path of the directory with .asm
-        // suffix
-        // Check if the directory is not empty
-        if (dir.length == 0) {
-            System.out.println("The directory is empty. No files to process.");
-            return;
-        }
-        // Get the parent directory path
-        String parentDir = dir[0].getParent();
-        // Create the output file path by using the name of the parent directory
-        String outputFileName = new File(parentDir).getName() + ".asm";
-        String outputPath = parentDir + File.separator + outputFileName;
-        // Create the output file
-        File outputFile = new File(outputPath);
-        outputFile.createNewFile();
-
-        // add the bootstrap to the output file
-        Bootstrap(outputFile, outputFile);
-
-        // Process each VM file and write to the output ASM file
-        for (File vmFile : dir) {
-            // translating the vm file to the hack-assembly language
-            translator(vmFile, outputFile);
-
-        }
-    }
-
-    /**
-     * this method writes the bootstrap of the file which initializes the operating
-     * system
-     * 
-     * @param asmFile
-     */
-    public static void Bootstrap(File asmFile, File vmFile) {
-        CodeWriter coder = new CodeWriter(asmFile,vmFile);
-        coder.WriteBootstrap();
-        coder.close();
-    }
-
-    /**
-     * this function translates the vm commands into assembly commands.
-     * it constructs a parser to handle the input file and a code writer to handle
-     * the ouputfile
-     * then - iterates through the input file, parsing each line and generating code
-     * from it
-     * 
-     * @param vmFile  - input
-     * @param asmFlie - output
-     */
-    public static void translator(File vmFile, File asmFile) throws FileNotFoundException, IOException {
-        Parser parser = new Parser(vmFile);
-        CodeWriter coder = new CodeWriter(asmFile, vmFile);
-
-        while (parser.hasMoreLines()) {
-            parser.advance();
-            if (parser.commandType().equals(commandType.C_ARITHMETIC)) {
-                coder.WriteArithmetic(parser.arg1());
-            } else if (parser.commandType().equals(commandType.C_POP)
-                    || parser.commandType().equals(commandType.C_PUSH)) {
-                coder.WritePushPop(parser.commandType(), parser.arg1(), parser.arg2());
-            } else if (parser.commandType().equals(commandType.C_CALL)) {
-                coder.WriteCall(parser.arg1(), parser.arg2());
-            } else if (parser.commandType().equals(commandType.C_FUNCTION)) {
-                coder.WriteFunction(parser.arg1(), parser.arg2());
-            } else if (parser.commandType().equals(commandType.C_LABEL)) {
-                coder.WriteLabel(parser.arg1());
-            } else if (parser.commandType().equals(commandType.C_GOTO)) {
-                coder.WriteGoTo(parser.arg1());
-            } else if (parser.commandType().equals(commandType.C_IF)) {
-                coder.WriteIf(parser.arg1());
-            } else if (parser.commandType().equals(commandType.C_RETURN)) {
-                coder.WriteReturn();
-            } else {
-                throw new IOException("This is not a legal command");
-            }
-        }
-        coder.close();
-
-    }
-
-}
+import java.io.File;
+import java.io.IOException;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class Main {
+    // the namespace of the labels of the bootstrap. a vm file is named after its
+    // class, which has no '$', so the return label of the call of Sys.init never
+    // collides with a label of the code
+    private static final File BOOTSTRAP_NAMESPACE = new File("$bootstrap.vm");
+
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("-daemon")) {
+            Daemon.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        int status = run(args, null, System.out);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * this function runs one translation with the command-line arguments and
+     * prints its diagnostics. it keeps no state between runs, so the daemon calls
+     * it for every request
+     *
+     * @param args
+     * @param dir  - the directory relative paths are resolved against, null for
+     *             the working directory
+     * @param out  - where the diagnostics are printed
+     * @return 0 if the translation succeeded, 1 if an error was printed
+     */
+    public static int run(String[] args, File dir, PrintStream out) {
+        // validate the input file
+        if (args.length == 0) {
+            out.println("Error: No command-line arguments provided");
+            return 1;
+        }
+        if (Arrays.asList(args).contains("-batch")) {
+            return Batch.run(args, dir, out);
+        }
+        Options options;
+        PassManager passes = new PassManager();
+        try {
+            options = Options.parse(args, dir);
+            passes.validate(options);
+        } catch (IllegalArgumentException e) {
+            out.println("Error: " + e.getMessage());
+            return 1;
+        }
+        if (options.getPaths().isEmpty()) {
+            out.println("Error: No input file or directory provided");
+            return 1;
+        }
+        String inputPath = options.getPaths().get(0);
+        File inputFile = new File(inputPath);
+        if (!inputFile.exists()) {
+            out.println("Error: file or directory not found");
+            return 1;
+        }
+        int status = 0;
+
+        Stats stats = new Stats();
+        if (options.metrics != null) {
+            stats.setMetrics(new Metrics());
+        }
+        try {
+            if (inputFile.isDirectory()) {
+                // Input is a directory, process all files in the directory into a single file
+                File[] files = inputFile.listFiles((parent, name) -> name.toLowerCase().endsWith(".vm"));
+                if (files != null) {
+                    processDir(files, options, passes, stats, out);
+                } else {
+                    out.println("Error: Unable to list files in the directory");
+                    status = 1;
+                }
+            } else if (inputFile.isFile()) {
+                // Input is a single file
+                processFile(inputFile, options, passes, stats, out);
+            } else {
+                out.println("Error: Invalid input");
+                status = 1;
+            }
+        } catch (IOException e) {
+            out.println("ERROR: " + e);
+            status = 1;
+        }
+        if (options.timePasses) {
+            for (String timing : passes.getTimings()) {
+                out.println(timing);
+            }
+        }
+        if (options.isPassEnabled("inline")) {
+            out.println("Inlined: " + stats.getInlinedCalls().size() + " call sites");
+            for (String call : stats.getInlinedCalls()) {
+                out.println("  inlined " + call);
+            }
+        }
+        if (options.isPassEnabled("dead-functions")) {
+            out.println("Dead functions: " + stats.getRemovedFunctions().size() + " removed, "
+                    + stats.getRemovedInstructions() + " instructions saved");
+            for (String function : stats.getRemovedFunctions()) {
+                out.println("  removed " + function);
+            }
+        }
+        if (options.instrument) {
+            out.println("Counters: " + stats.getCounters().size() + " from RAM[" + Counters.BASE
+                    + "], run the program with java Counters to write its profile");
+        }
+        if (options.sourceMap) {
+            out.println("Source map: " + stats.getSourceMap().size()
+                    + " ranges, run the program with java Profiler to attribute its cycles");
+        }
+        if (options.cache && stats.getCachedFiles() + stats.getTranslatedFiles() > 0) {
+            out.println("Cache: " + stats.getCachedFiles() + " reused, " + stats.getTranslatedFiles()
+                    + " translated");
+        }
+        if (options.peephole) {
+            out.println("Peephole: " + stats.getUnoptimizedInstructions() + " -> "
+                    + stats.getInstructions() + " instructions");
+        }
+        if (options.sharedCalls || options.sharedCompare || !options.profile.isEmpty() || options.romBudget > 0) {
+            out.println("ROM: " + stats.getInstructions() + " instructions (inline: "
+                    + stats.getInlineInstructions() + ", saved: " + stats.getSaved()
+                    + (options.romBudget > 0 ? ", budget: " + options.romBudget : "") + ")");
+        }
+        if (options.romBudget > 0 && stats.getInstructions() > options.romBudget) {
+            out.println("Error: the program does not fit in the ROM budget of " + options.romBudget
+                    + " instructions, even with every compact lowering"
+                    + (options.instrument ? " (the counters included)" : ""));
+            status = 1;
+        }
+        if (stats.getMetrics() != null) {
+            try {
+                stats.getMetrics().write(new File(options.metrics), inputPath, options, passes, stats);
+                out.println("Metrics: written to " + options.metrics);
+            } catch (IOException e) {
+                out.println("Error: cannot write the metrics to " + options.metrics + ": " + e.getMessage());
+                status = 1;
+            }
+        }
+        return status;
+    }
+
+    /**
+     * this function translates a vm file to a new asm file
+     * it creates a new asm file in the same folder
+     * 
+     * @param sourceFile
+     * @param options
+     * @param passes
+     * @param stats
+     * @param out        - where the diagnostics are printed
+     * @throws IOException
+     */
+    private static void processFile(File sourceFile, Options options, PassManager passes, Stats stats, PrintStream out)
+            throws IOException {
+        // create the output file - same as the original path with .asm suffix
+        String sourceAbsolutePath = sourceFile.getAbsolutePath();
+        String fileName = sourceFile.getName();
+        int fileNameExtensionIndex = fileName.lastIndexOf(".");
+        String fileNameNoExtension = fileName.substring(0, fileNameExtensionIndex);
+        int fileNameIndex = sourceFile.getAbsolutePath().indexOf(sourceFile.getName());
+        String sourceDirectory = sourceAbsolutePath.substring(0, fileNameIndex);
+        String outputFilePath = sourceDirectory + fileNameNoExtension + options.outputExtension();
+        File outputFile = new File(outputFilePath);
+
+        List<AsmBuffer> fragments = translate(new File[] { sourceFile }, outputFile, options, passes, stats, out);
+        long start = System.nanoTime();
+        writeOutput(outputFile, fragments, options);
+        if (stats.getMetrics() != null) {
+            stats.getMetrics().addPhase("write", System.nanoTime() - start);
+            stats.getMetrics().setOutputFile(outputFile);
+        }
+        if (options.instrument) {
+            Counters.writeMap(outputFile, stats.getCounters());
+        }
+        if (options.sourceMap) {
+            SourceMap.write(outputFile, stats.getSourceMap());
+        }
+    }
+
+    /**
+     * this function takes a directory of vm files and translates them to one new
+     * asm file
+     * it creates a new asm file in the same folder
+     *
+     * @param dir     - an array of files
+     * @param options
+     * @param passes
+     * @param stats
+     * @param out     - where the diagnostics are printed
+     * @throws IOException
+     */
+    private static void processDir(File[] dir, Options options, PassManager passes, Stats stats, PrintStream out)
+            throws IOException {
+        // create the output file - same as the original path of the directory with .asm
+        // suffix
+        // Check if the directory is not empty
+        if (dir.length == 0) {
+            out.println("The directory is empty. No files to process.");
+            return;
+        }
+        // Get the parent directory path
+        String parentDir = dir[0].getParent();
+        // Create the output file path by using the name of the parent directory
+        String outputFileName = new File(parentDir).getName() + options.outputExtension();
+        String outputPath = parentDir + File.separator + outputFileName;
+        // Create the output file
+        File outputFile = new File(outputPath);
+        File[] vmFiles = dir.clone();
+        Arrays.sort(vmFiles, Comparator.comparing(File::getName));
+
+        List<AsmBuffer> fragments = translate(vmFiles, outputFile, options, passes, stats, out);
+        long start = System.nanoTime();
+        writeOutput(outputFile, fragments, options);
+        if (stats.getMetrics() != null) {
+            stats.getMetrics().addPhase("write", System.nanoTime() - start);
+            stats.getMetrics().setOutputFile(outputFile);
+        }
+        if (options.instrument) {
+            Counters.writeMap(outputFile, stats.getCounters());
+        }
+        if (options.sourceMap) {
+            SourceMap.write(outputFile, stats.getSourceMap());
+        }
+    }
+
+    /**
+     * this function translates vm files into one asm file, in three stages:
+     * the files are read into a program (one unit per file), the enabled passes
+     * transform the whole program, and every unit is lowered into its own buffer.
+     * reading and lowering run on a pool of threads, the passes run on this thread.
+     * the buffers are written after the bootstrap in the order of the files, so
+     * the output does not depend on the number of threads.
+     * with the cache on, a file whose key is in the cache is not read at all and
+     * its fragment is reused, and every lowered fragment is stored
+     *
+     * @param vmFiles    - the files, in the order of the output
+     * @param outputFile
+     * @param options
+     * @param passes
+     * @param stats
+     * @param out        - where the diagnostics are printed
+     * @return the code of the bootstrap and of each vm file, in order
+     * @throws IOException
+     */
+    private static List<AsmBuffer> translate(File[] vmFiles, File outputFile, Options options,
+            PassManager passes, Stats stats, PrintStream out) throws IOException {
+        List<AsmBuffer> fragments = new ArrayList<>();
+        // the lowering of every call, return, comparison and function, if the
+        // options pick a profile or a budget
+        CostModel plan = CostModel.plan(options);
+
+        // fragments of unchanged files are reused, unless a pass looks across files
+        VMCache cache = null;
+        if (options.cache) {
+            if (passes.isWholeProgram(options)) {
+                out.println("Cache: bypassed, a whole-program pass is enabled");
+            } else if (options.instrument) {
+                out.println("Cache: bypassed, the counters are numbered over the whole program");
+            } else if (options.sourceMap) {
+                out.println("Cache: bypassed, the source map needs the origin of every instruction");
+            } else if (plan != null && plan.isWholeProgram()) {
+                out.println("Cache: bypassed, the lowering is planned over the whole program");
+            } else {
+                cache = new VMCache(new File(outputFile.getAbsoluteFile().getParentFile(), ".vmcache"), options);
+            }
+        }
+        VMCache fragmentCache = cache;
+        String[] keys = new String[vmFiles.length];
+        AsmBuffer[] codes = new AsmBuffer[vmFiles.length];
+        Stats[] unitStats = new Stats[vmFiles.length];
+
+        // the report of the run with -metrics, null without
+        Metrics metrics = stats.getMetrics();
+        long phaseStart = System.nanoTime();
+
+        Program program = new Program();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(options.threads, vmFiles.length)));
+        try {
+            // read each vm file that is not in the cache into a unit of the program
+            List<Future<IR>> units = new ArrayList<>();
+            for (int i = 0; i < vmFiles.length; i++) {
+                File vmFile = vmFiles[i];
+                int file = i;
+                unitStats[i] = new Stats();
+                units.add(pool.submit(() -> {
+                    if (fragmentCache != null) {
+                        long start = System.nanoTime();
+                        keys[file] = fragmentCache.key(vmFile);
+                        codes[file] = fragmentCache.load(keys[file], unitStats[file]);
+                        unitStats[file].addTime(Stats.CACHE, System.nanoTime() - start);
+                        if (codes[file] != null) {
+                            return null;
+                        }
+                    }
+                    long start = System.nanoTime();
+                    IR unit = read(vmFile, program, options, metrics != null ? unitStats[file] : null);
+                    unitStats[file].addTime(Stats.READ, System.nanoTime() - start);
+                    return unit;
+                }));
+            }
+            List<Integer> unitFiles = new ArrayList<>();
+            for (int i = 0; i < vmFiles.length; i++) {
+                IR unit = units.get(i).get();
+                unitStats[i].addFile(unit == null);
+                if (unit != null) {
+                    program.add(unit);
+                    unitFiles.add(i);
+                }
+            }
+
+            if (metrics != null) {
+                metrics.addPhase("read", System.nanoTime() - phaseStart);
+                phaseStart = System.nanoTime();
+            }
+            passes.run(program, options);
+            if (options.isPassEnabled("inline")) {
+                stats.addInlined(((Inliner) passes.get("inline")).getInlined());
+            }
+            if (options.isPassEnabled("dead-functions")) {
+                // lower the dropped code on the side, only to count what it would have taken
+                DeadFunctions dead = (DeadFunctions) passes.get("dead-functions");
+                Stats removed = new Stats();
+                for (IR unit : dead.getRemoved()) {
+                    lower(unit, program, new AsmBuffer(), options, removed);
+                }
+                stats.addRemoved(dead.getRemovedNames(), removed.getInstructions());
+            }
+
+            if (plan != null) {
+                plan.prepare(program);
+            }
+            if (metrics != null) {
+                metrics.addPhase("passes", System.nanoTime() - phaseStart);
+                phaseStart = System.nanoTime();
+            }
+            Counters counters = null;
+            if (options.instrument) {
+                try {
+                    counters = Counters.assign(program);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(e.getMessage());
+                }
+                stats.setCounters(counters.getEntries());
+            }
+            Counters unitCounters = counters;
+            SourceMap sourceMap = options.sourceMap ? new SourceMap() : null;
+            // lower each unit into its own buffer; with a ROM budget, lower again
+            // until the program fits or nothing is left to make compact
+            AsmBuffer bootstrap;
+            Stats bootstrapStats;
+            Stats[] lowered = new Stats[vmFiles.length];
+            while (true) {
+                List<Future<?>> results = new ArrayList<>();
+                for (int i = 0; i < program.getUnits().size(); i++) {
+                    IR unit = program.getUnits().get(i);
+                    int file = unitFiles.get(i);
+                    results.add(pool.submit(() -> {
+                        AsmBuffer code = new AsmBuffer();
+                        lowered[file] = new Stats();
+                        long start = System.nanoTime();
+                        lower(unit, program, code, options, plan, unitCounters, sourceMap, lowered[file]);
+                        lowered[file].addTime(Stats.LOWER, System.nanoTime() - start);
+                        codes[file] = code;
+                        if (fragmentCache != null) {
+                            start = System.nanoTime();
+                            try {
+                                fragmentCache.store(keys[file], code, lowered[file]);
+                            } catch (IOException e) {
+                                out.println("Error: cannot write the cache entry of " + vmFiles[file].getName());
+                            }
+                            lowered[file].addTime(Stats.CACHE, System.nanoTime() - start);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> result : results) {
+                    result.get();
+                }
+                // the bootstrap writes the shared routines the code uses, the cached
+                // fragments included
+                long size = 0;
+                long tailCalls = 0;
+                for (int i = 0; i < vmFiles.length; i++) {
+                    size += unitStats[i].getInstructions() + (lowered[i] != null ? lowered[i].getInstructions() : 0);
+                    tailCalls += unitStats[i].getTailCalls() + (lowered[i] != null ? lowered[i].getTailCalls() : 0);
+                }
+                bootstrap = new AsmBuffer();
+                bootstrapStats = new Stats();
+                Bootstrap(bootstrap, BOOTSTRAP_NAMESPACE, options, plan, tailCalls > 0, bootstrapStats);
+                size += bootstrapStats.getInstructions();
+                if (plan == null || !plan.shrink(program, size)) {
+                    break;
+                }
+            }
+            if (sourceMap != null) {
+                stats.setSourceMap(sourceMap.entries(bootstrap, program));
+            }
+            if (metrics != null) {
+                metrics.addPhase("lower", System.nanoTime() - phaseStart);
+                metrics.setBootstrapInstructions(bootstrapStats.getInstructions());
+            }
+            fragments.add(bootstrap);
+            stats.add(bootstrapStats);
+            for (int i = 0; i < vmFiles.length; i++) {
+                fragments.add(codes[i]);
+                stats.add(unitStats[i]);
+                if (lowered[i] != null) {
+                    stats.add(lowered[i]);
+                }
+                if (metrics != null) {
+                    Stats fileStats = new Stats();
+                    fileStats.add(unitStats[i]);
+                    if (lowered[i] != null) {
+                        fileStats.add(lowered[i]);
+                    }
+                    metrics.addFile(vmFiles[i].getName(), fileStats, codes[i].length());
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            pool.shutdown();
+        }
+        return fragments;
+    }
+
+    /**
+     * this function translates a vm file or a directory of vm files in memory,
+     * without writing the asm file. it is used by the tools that run the
+     * generated code
+     *
+     * @param input   - a vm file or a directory
+     * @param options
+     * @param passes
+     * @param stats
+     * @return the code of the bootstrap and of each vm file, in order
+     * @throws IOException
+     */
+    public static List<AsmBuffer> compile(File input, Options options, PassManager passes, Stats stats)
+            throws IOException {
+        if (input.isDirectory()) {
+            File[] vmFiles = input.listFiles((dir, name) -> name.toLowerCase().endsWith(".vm"));
+            if (vmFiles == null || vmFiles.length == 0) {
+                throw new IOException("No vm files in " + input);
+            }
+            Arrays.sort(vmFiles, Comparator.comparing(File::getName));
+            File outputFile = new File(input, input.getName() + ".asm");
+            return translate(vmFiles, outputFile, options, passes, stats, System.out);
+        }
+        return translate(new File[] { input }, input, options, passes, stats, System.out);
+    }
+
+    /**
+     * this function writes the translated code into the output file, replacing its
+     * previous content. assembly is written with gathering writes of all the
+     * buffers. machine code is encoded straight from the buffers in one pass, so
+     * no asm file is written or read again
+     * 
+     * @param outputFile
+     * @param fragments  - the code of the bootstrap and of each vm file, in order
+     * @param options
+     * @throws IOException
+     */
+    private static void writeOutput(File outputFile, List<AsmBuffer> fragments, Options options)
+            throws IOException {
+        if (!options.emit.equals("asm")) {
+            int[] rom;
+            try {
+                rom = HackAssembler.assemble(fragments);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+            if (options.emit.equals("hack")) {
+                HackAssembler.writeHack(outputFile, rom);
+            } else {
+                HackAssembler.writeBinary(outputFile, rom);
+            }
+            return;
+        }
+        ByteBuffer[] buffers = new ByteBuffer[fragments.size()];
+        long remaining = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = fragments.get(i).asByteBuffer();
+            remaining += buffers[i].remaining();
+        }
+        try (FileChannel channel = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+        }
+    }
+
+    /**
+     * this method writes the bootstrap of the file which initializes the operating
+     * system
+     * 
+     * @param out     - output
+     * @param vmFile  - the namespace of the labels of the bootstrap
+     * @param options
+     * @param stats
+     */
+    public static void Bootstrap(AsmBuffer out, File vmFile, Options options, Stats stats) {
+        Bootstrap(out, vmFile, options, null, options.isPassEnabled("tail-calls"), stats);
+    }
+
+    /**
+     * this method writes the bootstrap of the file which initializes the operating
+     * system, with the shared routines the lowering of the cost model uses
+     * 
+     * @param out     - output
+     * @param vmFile  - the namespace of the labels of the bootstrap
+     * @param options
+     * @param plan      - the cost model, null to follow the options
+     * @param tailCalls - true if the code has a tail call
+     * @param stats
+     */
+    public static void Bootstrap(AsmBuffer out, File vmFile, Options options, CostModel plan, boolean tailCalls,
+            Stats stats) {
+        CodeWriter coder = new CodeWriter(out, vmFile, options);
+        if (plan == null) {
+            coder.WriteBootstrap(tailCalls);
+        } else {
+            coder.WriteBootstrap(plan.usesRoutine(CostModel.CALL), plan.usesRoutine(CostModel.RETURN),
+                    plan.usesRoutine(CostModel.COMPARE), tailCalls);
+        }
+        coder.close();
+        stats.add(coder);
+    }
+
+    /**
+     * this function reads a vm file into a unit of the program
+     * 
+     * @param vmFile  - input
+     * @param program - the program that owns the symbols
+     * @param options
+     * @return the unit
+     * @throws IOException
+     */
+    public static IR read(File vmFile, Program program, Options options) throws FileNotFoundException, IOException {
+        return read(vmFile, program, options, null);
+    }
+
+    /**
+     * this function reads a vm file into a unit of the program and counts its
+     * lines and commands
+     * 
+     * @param vmFile  - input
+     * @param program - the program that owns the symbols
+     * @param options
+     * @param stats   - where the lines and commands are counted, or null
+     * @return the unit
+     * @throws IOException
+     */
+    public static IR read(File vmFile, Program program, Options options, Stats stats)
+            throws FileNotFoundException, IOException {
+        VMParser parser = options.mappedParser ? new MappedParser(vmFile) : new Parser(vmFile);
+        try {
+            IR unit = IR.read(parser, vmFile, program);
+            if (stats != null) {
+                stats.addParsed(unit, parser.lineNumber());
+            }
+            return unit;
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage() + " in " + vmFile.getName() + " line " + parser.lineNumber());
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * this function lowers the commands of a unit into assembly commands.
+     * 
+     * @param unit
+     * @param program - the program that owns the symbols
+     * @param out     - output
+     * @param options
+     * @param stats
+     */
+    public static void lower(IR unit, Program program, AsmBuffer out, Options options, Stats stats) {
+        lower(unit, program, out, options, null, null, null, stats);
+    }
+
+    /**
+     * this function lowers the commands of a unit into assembly commands, with
+     * the lowering the cost model picks for every call, return, comparison and
+     * function
+     * 
+     * @param unit
+     * @param program - the program that owns the symbols
+     * @param out     - output
+     * @param options
+     * @param plan     - the cost model, null to follow the options
+     * @param counters - the counters of an instrumented program, or null
+     * @param map      - the source map the origins of the instructions are kept
+     *                 in, or null
+     * @param stats
+     */
+    public static void lower(IR unit, Program program, AsmBuffer out, Options options, CostModel plan,
+            Counters counters, SourceMap map, Stats stats) {
+        CodeWriter coder = new CodeWriter(out, unit.getSource(), options);
+        // with -metrics, the code of every command is counted by commandType and
+        // function as it is written
+        boolean metrics = options.metrics != null;
+        int start = out.length();
+        int mark = start;
+        String function = unit.getSource().getName();
+        for (int i = 0; i < unit.size(); i++) {
+            if (plan != null) {
+                coder.setCompact(plan.isCompact(unit, i));
+            }
+            if (counters != null) {
+                coder.setCounter(counters.address(unit, i));
+            }
+            coder.setOrigin(i);
+            switch (unit.op(i)) {
+                case IR.ARITHMETIC:
+                    coder.WriteArithmetic(MappedParser.ARITHMETIC[unit.arg(i)]);
+                    break;
+                case IR.PUSH:
+                    coder.WritePushPop(commandType.C_PUSH, unit.arg(i), unit.index(i));
+                    break;
+                case IR.POP:
+                    coder.WritePushPop(commandType.C_POP, unit.arg(i), unit.index(i));
+                    break;
+                case IR.LABEL:
+                    coder.WriteLabel(program.symbolName(unit.symbol(i)));
+                    break;
+                case IR.GOTO:
+                    coder.WriteGoTo(program.symbolName(unit.symbol(i)));
+                    break;
+                case IR.IF:
+                    coder.WriteIf(program.symbolName(unit.symbol(i)));
+                    break;
+                case IR.COMPARE_IF:
+                    coder.WriteCompareIf(MappedParser.ARITHMETIC[unit.arg(i)], unit.index(i) == 1,
+                            program.symbolName(unit.symbol(i)));
+                    break;
+                case IR.FUNCTION:
+                    coder.WriteFunction(program.symbolName(unit.symbol(i)), unit.index(i));
+                    break;
+                case IR.CALL:
+                    coder.WriteCall(program.symbolName(unit.symbol(i)), unit.index(i));
+                    break;
+                case IR.RETURN:
+                    coder.WriteReturn();
+                    break;
+                case IR.TAIL_CALL:
+                    coder.WriteTailCall(program.symbolName(unit.symbol(i)), unit.index(i));
+                    break;
+            }
+            if (metrics && unit.op(i) != IR.NOP) {
+                if (unit.op(i) == IR.FUNCTION) {
+                    function = program.symbolName(unit.symbol(i));
+                }
+                stats.addLowered(IR.commandType(unit.op(i)), function, out.countInstructions(mark),
+                        out.countLabels(mark));
+                mark = out.length();
+            }
+        }
+        coder.close();
+        stats.add(coder);
+        if (map != null) {
+            map.add(unit, coder.getOrigins());
+        }
+        if (metrics) {
+            Metrics.countFunctions(out, start, unit, program, stats);
+        }
+    }
+
+}
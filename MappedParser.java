@@ -0,0 +1,428 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class MappedParser implements VMParser {
+    // the segment ids of C_PUSH and C_POP commands
+    public static final int SEG_ARGUMENT = 0;
+    public static final int SEG_LOCAL = 1;
+    public static final int SEG_STATIC = 2;
+    public static final int SEG_CONSTANT = 3;
+    public static final int SEG_THIS = 4;
+    public static final int SEG_THAT = 5;
+    public static final int SEG_POINTER = 6;
+    public static final int SEG_TEMP = 7;
+    public static final String[] SEGMENTS = { "argument", "local", "static", "constant", "this", "that",
+            "pointer", "temp" };
+
+    // the operation ids of C_ARITHMETIC commands
+    public static final String[] ARITHMETIC = { "add", "sub", "neg", "eq", "gt", "lt", "and", "or", "not" };
+    // the largest index of a command, the largest constant of the Hack platform
+    private static final int MAX_INDEX = 32767;
+
+    private static final byte[][] SEGMENT_BYTES = ascii(SEGMENTS);
+    private static final byte[][] ARITHMETIC_BYTES = ascii(ARITHMETIC);
+    private static final byte[] PUSH = ascii("push");
+    private static final byte[] POP = ascii("pop");
+    private static final byte[] LABEL = ascii("label");
+    private static final byte[] GOTO = ascii("goto");
+    private static final byte[] IF_GOTO = ascii("if-goto");
+    private static final byte[] FUNCTION = ascii("function");
+    private static final byte[] CALL = ascii("call");
+    private static final byte[] RETURN = ascii("return");
+
+    private MappedByteBuffer buffer;
+    private int limit;
+    private int pos;
+    private int line;
+    private String fileName;
+    private Interner symbols;
+
+    // the current command
+    private commandType opcode;
+    private int operation;
+    private int segment;
+    private int index;
+    private int symbolStart;
+    private int symbolLength;
+    private String symbol;
+
+    // the token that was read last
+    private int tokenStart;
+    private int tokenEnd;
+
+    /**
+     * contructor of the parser. maps the whole vm file into memory
+     *
+     * @param source
+     * @throws IOException
+     */
+    public MappedParser(File source) throws IOException {
+        if (source == null) {
+            throw new NullPointerException("source");
+        }
+        if (!source.exists()) {
+            throw new FileNotFoundException(source.getAbsolutePath());
+        }
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        this.limit = buffer.limit();
+        this.pos = 0;
+        this.line = 0;
+        this.fileName = source.getName();
+        this.symbols = new Interner();
+    }
+
+    /**
+     * checks if there are more commands in the vm file, and decodes the next one.
+     * empty lines and documentation lines are skipped
+     *
+     * @return true or false
+     * @throws IOException if the next command is not a legal command
+     */
+    public boolean hasMoreLines() throws IOException {
+        while (pos < limit) {
+            line++;
+            int end = pos;
+            while (end < limit && buffer.get(end) != '\n') {
+                end++;
+            }
+            int next = end + 1;
+            if (readToken(pos, end)) {
+                decode(end);
+                pos = next;
+                return true;
+            }
+            pos = next;
+        }
+        return false;
+    }
+
+    /**
+     * the next command was already decoded by hasMoreLines()
+     */
+    public void advance() {
+    }
+
+    /**
+     * this method decodes the current line into the fields of the current command,
+     * the first token was already read
+     *
+     * @param end - the end of the line
+     * @throws IOException
+     */
+    private void decode(int end) throws IOException {
+        symbol = null;
+        symbolStart = 0;
+        symbolLength = 0;
+        segment = -1;
+        operation = -1;
+        index = 0;
+        if ((operation = lookup(ARITHMETIC_BYTES)) >= 0) {
+            opcode = commandType.C_ARITHMETIC;
+        } else if (tokenIs(PUSH) || tokenIs(POP)) {
+            opcode = tokenIs(PUSH) ? commandType.C_PUSH : commandType.C_POP;
+            nextToken(end);
+            segment = lookup(SEGMENT_BYTES);
+            if (segment < 0) {
+                throw error("Unknown segment");
+            }
+            nextToken(end);
+            index = number();
+        } else if (tokenIs(LABEL) || tokenIs(GOTO) || tokenIs(IF_GOTO)) {
+            opcode = tokenIs(LABEL) ? commandType.C_LABEL
+                    : tokenIs(GOTO) ? commandType.C_GOTO : commandType.C_IF;
+            nextToken(end);
+            symbolStart = tokenStart;
+            symbolLength = tokenEnd - tokenStart;
+        } else if (tokenIs(FUNCTION) || tokenIs(CALL)) {
+            opcode = tokenIs(FUNCTION) ? commandType.C_FUNCTION : commandType.C_CALL;
+            nextToken(end);
+            symbolStart = tokenStart;
+            symbolLength = tokenEnd - tokenStart;
+            nextToken(end);
+            index = number();
+        } else if (tokenIs(RETURN)) {
+            opcode = commandType.C_RETURN;
+        } else {
+            throw error("This is not a legal command");
+        }
+    }
+
+    /**
+     * this method finds the next token of the line, stopping at whitespace and at
+     * a documentation comment
+     *
+     * @param from
+     * @param end  - the end of the line
+     * @return true if a token was found
+     */
+    private boolean readToken(int from, int end) {
+        int i = from;
+        while (i < end && isSpace(buffer.get(i))) {
+            i++;
+        }
+        if (i >= end || isComment(i, end)) {
+            return false;
+        }
+        tokenStart = i;
+        while (i < end && !isSpace(buffer.get(i)) && !isComment(i, end)) {
+            i++;
+        }
+        tokenEnd = i;
+        return true;
+    }
+
+    private void nextToken(int end) throws IOException {
+        if (!readToken(tokenEnd, end)) {
+            throw error("Missing argument");
+        }
+    }
+
+    private boolean isComment(int i, int end) {
+        return buffer.get(i) == '/' && i + 1 < end && buffer.get(i + 1) == '/';
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private boolean tokenIs(byte[] word) {
+        if (tokenEnd - tokenStart != word.length) {
+            return false;
+        }
+        for (int i = 0; i < word.length; i++) {
+            if (buffer.get(tokenStart + i) != word[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int lookup(byte[][] words) {
+        for (int i = 0; i < words.length; i++) {
+            if (tokenIs(words[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int number() throws IOException {
+        int value = 0;
+        for (int i = tokenStart; i < tokenEnd; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                throw error("Invalid numeric input");
+            }
+            value = value * 10 + (b - '0');
+            if (value > MAX_INDEX) {
+                throw error("Invalid numeric input");
+            }
+        }
+        return value;
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " in " + fileName + " line " + line);
+    }
+
+    /**
+     * @return the type of the current command
+     */
+    public commandType commandType() {
+        return opcode;
+    }
+
+    /**
+     * this method returns the first argument of the current command.
+     * In the case of C_ARITHMETIC the command itself (add, sub, etc.) is returnd.
+     * Symbols are interned, so a symbol that appears again is not allocated again.
+     *
+     * @return string
+     */
+    public String arg1() {
+        if (opcode == commandType.C_ARITHMETIC) {
+            return ARITHMETIC[operation];
+        }
+        if (opcode == commandType.C_PUSH || opcode == commandType.C_POP) {
+            return SEGMENTS[segment];
+        }
+        if (symbol == null && symbolLength > 0) {
+            symbol = symbols.values[symbols.slot(buffer, symbolStart, symbolLength)];
+        }
+        return symbol;
+    }
+
+    /**
+     * this method returns the second argument of the current command.
+     * Should be called if the current command is C_PUSH, C_POP, C_FUNCTION, C_CALL.
+     *
+     * @return int
+     */
+    public int arg2() {
+        return index;
+    }
+
+    /**
+     * @return the operation id of the current C_ARITHMETIC command, an index into
+     *         ARITHMETIC
+     */
+    public int operation() {
+        return operation;
+    }
+
+    /**
+     * @return the segment id of the current C_PUSH or C_POP command, an index into
+     *         SEGMENTS
+     */
+    public int segment() {
+        return segment;
+    }
+
+    /**
+     * this method returns the id of the symbol of the current command in a
+     * program. the symbol is looked up by its bytes in the mapped file, and it is
+     * decoded and added to the program only the first time it appears in the file
+     *
+     * @param program - the program that owns the symbols
+     * @return the id of the symbol
+     */
+    public int symbol(Program program) {
+        return symbols.id(buffer, symbolStart, symbolLength, program);
+    }
+
+    /**
+     * @return the line number of the current command
+     */
+    public int lineNumber() {
+        return line;
+    }
+
+    /**
+     * this method drops the mapping and the symbols of the file. the file is
+     * unmapped when the buffer is collected, and the parser has no more lines
+     */
+    public void close() {
+        buffer = null;
+        symbols = null;
+        limit = 0;
+        pos = 0;
+    }
+
+    private static byte[] ascii(String word) {
+        return word.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[][] ascii(String[] words) {
+        byte[][] bytes = new byte[words.length][];
+        for (int i = 0; i < words.length; i++) {
+            bytes[i] = ascii(words[i]);
+        }
+        return bytes;
+    }
+
+    /**
+     * an open-addressing table that maps byte slices of the file to strings and
+     * to their ids in the program, so that every distinct symbol is decoded and
+     * looked up in the program once
+     */
+    private static class Interner {
+        private byte[][] keys = new byte[256][];
+        private String[] values = new String[256];
+        // the id of every symbol in the program, NO_ID until it is asked for
+        private int[] ids = newIds(256);
+        private int size = 0;
+
+        private static final int NO_ID = -2;
+
+        int id(MappedByteBuffer buffer, int start, int length, Program program) {
+            int slot = slot(buffer, start, length);
+            if (ids[slot] == NO_ID) {
+                ids[slot] = program.symbol(values[slot]);
+            }
+            return ids[slot];
+        }
+
+        /**
+         * @return the slot of a byte slice, added to the table if it is new
+         */
+        int slot(MappedByteBuffer buffer, int start, int length) {
+            int hash = 0;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + buffer.get(start + i);
+            }
+            int mask = keys.length - 1;
+            int slot = hash & mask;
+            while (keys[slot] != null) {
+                if (equals(keys[slot], buffer, start, length)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            byte[] key = new byte[length];
+            for (int i = 0; i < length; i++) {
+                key[i] = buffer.get(start + i);
+            }
+            String value = new String(key, StandardCharsets.US_ASCII);
+            keys[slot] = key;
+            values[slot] = value;
+            if (++size * 2 > keys.length) {
+                grow();
+                return slot(buffer, start, length);
+            }
+            return slot;
+        }
+
+        private static int[] newIds(int length) {
+            int[] ids = new int[length];
+            Arrays.fill(ids, NO_ID);
+            return ids;
+        }
+
+        private static boolean equals(byte[] key, MappedByteBuffer buffer, int start, int length) {
+            if (key.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key[i] != buffer.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void grow() {
+            byte[][] oldKeys = keys;
+            String[] oldValues = values;
+            int[] oldIds = ids;
+            keys = new byte[oldKeys.length * 2][];
+            values = new String[oldKeys.length * 2];
+            ids = newIds(oldKeys.length * 2);
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == null) {
+                    continue;
+                }
+                int hash = 0;
+                for (byte b : oldKeys[i]) {
+                    hash = 31 * hash + b;
+                }
+                int slot = hash & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                ids[slot] = oldIds[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+public class Metrics {
+    // the time of every phase of the run, in nanoseconds, in the order they ran
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    // the statistics of every vm file and the bytes of its code, by name, in the
+    // order of the output
+    private final Map<String, Stats> files = new LinkedHashMap<>();
+    private final Map<String, Long> fileBytes = new LinkedHashMap<>();
+    private long bootstrapInstructions;
+    private File outputFile;
+    private final long start = System.nanoTime();
+
+    /**
+     * adds the wall time of a phase of the run
+     *
+     * @param phase
+     * @param nanos
+     */
+    public void addPhase(String phase, long nanos) {
+        phases.merge(phase, nanos, Long::sum);
+    }
+
+    /**
+     * adds the statistics of a translated vm file
+     *
+     * @param name
+     * @param stats - its statistics, after the passes and the lowering
+     * @param bytes - the bytes of its code in the output
+     */
+    public void addFile(String name, Stats stats, long bytes) {
+        files.put(name, stats);
+        fileBytes.put(name, bytes);
+    }
+
+    public void setBootstrapInstructions(long instructions) {
+        bootstrapInstructions = instructions;
+    }
+
+    public void setOutputFile(File outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    /**
+     * this function counts the instructions and labels of every function of a unit
+     * in its final code, after the peephole optimizer. a function starts at its
+     * label, the code before the first one belongs to the file
+     *
+     * @param out     - the buffer with the code of the unit
+     * @param from    - the offset where the code of the unit starts
+     * @param unit
+     * @param program - the program that owns the symbols
+     * @param stats   - the statistics of the unit
+     */
+    public static void countFunctions(AsmBuffer out, int from, IR unit, Program program, Stats stats) {
+        Set<String> functions = new HashSet<>();
+        for (int i = 0; i < unit.size(); i++) {
+            if (unit.op(i) == IR.FUNCTION) {
+                functions.add(program.symbolName(unit.symbol(i)));
+            }
+        }
+        String function = unit.getSource().getName();
+        long instructions = 0;
+        long labels = 0;
+        for (String line : out.toString(from).split("\n")) {
+            if (line.isEmpty() || line.startsWith("/")) {
+                continue;
+            }
+            if (line.startsWith("(")) {
+                String label = line.substring(1, line.length() - 1);
+                if (functions.contains(label)) {
+                    stats.addFunctionOutput(function, instructions, labels);
+                    function = label;
+                    instructions = 0;
+                    labels = 0;
+                }
+                labels++;
+            } else {
+                instructions++;
+            }
+        }
+        stats.addFunctionOutput(function, instructions, labels);
+    }
+
+    /**
+     * this method writes the report of a run as json: the time of every phase and
+     * pass, the bytes written, and the lines, commands, instructions and labels by
+     * commandType, by vm file and by function, the largest functions first.
+     * the instructions and labels by commandType are counted as the commands are
+     * lowered, before the peephole optimizer; the ones of a function are counted
+     * both before and after it
+     *
+     * @param file
+     * @param input
+     * @param options
+     * @param passes
+     * @param total   - the statistics of the whole run
+     * @throws IOException
+     */
+    public void write(File file, String input, Options options, PassManager passes, Stats total)
+            throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"input\": ").append(quote(new File(input).getAbsolutePath())).append(",\n");
+        json.append("  \"output\": ")
+                .append(outputFile == null ? "null" : quote(outputFile.getAbsolutePath())).append(",\n");
+        json.append("  \"options\": ").append(quote(options.signature())).append(",\n");
+        json.append("  \"totalMs\": ").append(millis(System.nanoTime() - start)).append(",\n");
+        json.append("  \"phasesMs\": {");
+        appendTimes(json, phases);
+        json.append("},\n");
+        json.append("  \"passesMs\": {");
+        appendTimes(json, passes.getNanos());
+        json.append("},\n");
+        json.append("  \"bytesWritten\": ").append(outputFile == null ? 0 : outputFile.length()).append(",\n");
+        json.append("  \"instructions\": ").append(total.getInstructions()).append(",\n");
+        json.append("  \"unoptimizedInstructions\": ").append(total.getUnoptimizedInstructions()).append(",\n");
+        json.append("  \"bootstrapInstructions\": ").append(bootstrapInstructions).append(",\n");
+        json.append("  \"lines\": ").append(total.getLines()).append(",\n");
+        json.append("  \"commandTypes\": ");
+        appendCommandTypes(json, total, "  ");
+        json.append(",\n");
+
+        json.append("  \"files\": [");
+        String separator = "\n";
+        for (Map.Entry<String, Stats> entry : files.entrySet()) {
+            Stats stats = entry.getValue();
+            json.append(separator).append("    {\"name\": ").append(quote(entry.getKey()));
+            json.append(", \"cached\": ").append(stats.getCachedFiles() > 0);
+            json.append(", \"lines\": ").append(stats.getLines());
+            json.append(", \"bytes\": ").append(fileBytes.get(entry.getKey()));
+            json.append(", \"instructions\": ").append(stats.getInstructions());
+            json.append(", \"readMs\": ").append(millis(stats.getTime(Stats.READ)));
+            json.append(", \"lowerMs\": ").append(millis(stats.getTime(Stats.LOWER)));
+            json.append(", \"cacheMs\": ").append(millis(stats.getTime(Stats.CACHE)));
+            json.append(",\n     \"commandTypes\": ");
+            appendCommandTypes(json, stats, "     ");
+            json.append("}");
+            separator = ",\n";
+        }
+        json.append("\n  ],\n");
+
+        json.append("  \"functions\": [");
+        List<Map.Entry<String, long[]>> functions = new ArrayList<>(total.getFunctions().entrySet());
+        functions.sort((a, b) -> Long.compare(b.getValue()[3], a.getValue()[3]));
+        separator = "\n";
+        for (Map.Entry<String, long[]> function : functions) {
+            long[] sizes = function.getValue();
+            json.append(separator).append("    {\"name\": ").append(quote(function.getKey()));
+            json.append(", \"commands\": ").append(sizes[0]);
+            json.append(", \"emittedInstructions\": ").append(sizes[1]);
+            json.append(", \"emittedLabels\": ").append(sizes[2]);
+            json.append(", \"instructions\": ").append(sizes[3]);
+            json.append(", \"labels\": ").append(sizes[4]).append("}");
+            separator = ",\n";
+        }
+        json.append("\n  ]\n}\n");
+        Files.write(file.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * this helper method appends the counts of a translation by commandType, for
+     * the types that occur
+     *
+     * @param json
+     * @param stats
+     * @param indent - the indentation of the closing brace
+     */
+    private static void appendCommandTypes(StringBuilder json, Stats stats, String indent) {
+        json.append("{");
+        String separator = "\n";
+        for (commandType type : commandType.values()) {
+            int i = type.ordinal();
+            if (stats.getParsedCommands()[i] == 0 && stats.getLoweredCommands()[i] == 0) {
+                continue;
+            }
+            json.append(separator).append(indent).append("  ").append(quote(type.name()));
+            json.append(": {\"parsed\": ").append(stats.getParsedCommands()[i]);
+            json.append(", \"lowered\": ").append(stats.getLoweredCommands()[i]);
+            json.append(", \"instructions\": ").append(stats.getEmittedInstructions()[i]);
+            json.append(", \"labels\": ").append(stats.getEmittedLabels()[i]).append("}");
+            separator = ",\n";
+        }
+        json.append(separator.equals("\n") ? "}" : "\n" + indent + "}");
+    }
+
+    /**
+     * this helper method appends times as json members, in milliseconds
+     *
+     * @param json
+     * @param nanos - the times in nanoseconds, by name
+     */
+    private static void appendTimes(StringBuilder json, Map<String, Long> nanos) {
+        String separator = "";
+        for (Map.Entry<String, Long> entry : nanos.entrySet()) {
+            json.append(separator).append(quote(entry.getKey())).append(": ").append(millis(entry.getValue()));
+            separator = ", ";
+        }
+    }
+
+    /**
+     * @param nanos
+     * @return the time in milliseconds, with three decimals
+     */
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    /**
+     * @param text
+     * @return the text as a json string
+     */
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,284 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Options {
+    // emit one global $$CALL / $$RETURN routine instead of inlining the frame
+    // protocol at every call site
+    public boolean sharedCalls;
+    // emit one global routine per comparison kind instead of inlining eq/gt/lt
+    public boolean sharedCompare;
+    // run the peephole optimizer over the generated assembly
+    public boolean peephole;
+    // keep the top of the stack in D between the commands of a basic block
+    public boolean tosInD;
+    // the number of threads that translate the files of a directory
+    public int threads;
+    // parse the vm files with the memory-mapped, allocation-free parser
+    public boolean mappedParser;
+    // print the time of every pass that ran
+    public boolean timePasses;
+    // reuse the fragments of unchanged files from the .vmcache directory
+    public boolean cache;
+    // the largest function body, in vm commands, that the inline pass inlines
+    public int inlineSize;
+    // the lowering profile of the cost model: "" (the lowerings the options ask
+    // for), "O2" (the fastest lowering of every command) or "Os" (the smallest)
+    public String profile;
+    // the largest program, in instructions, the lowerings are picked to fit in
+    // (0 for no budget)
+    public int romBudget;
+    // count the executions of every function, call and label in RAM
+    public boolean instrument;
+    // the counts of a run of the instrumented program, null if none
+    public Profile profileUse;
+    // write the source map of the output (Name.map): the vm file, line and
+    // function of every range of instructions
+    public boolean sourceMap;
+    // the json file the metrics of the translation are written to, null if none
+    public String metrics;
+    // the output: asm (assembly), hack (machine code as text) or bin (raw machine code)
+    public String emit;
+
+    private List<String> paths;
+    // the passes that were turned on or off, by name
+    private Map<String, Boolean> passes;
+
+    /**
+     * constructor of the options - only the peephole optimizer and the
+     * constant-folding and branch-fusion passes are on by default
+     */
+    public Options() {
+        this.sharedCalls = false;
+        this.sharedCompare = false;
+        this.peephole = true;
+        this.tosInD = false;
+        this.threads = Runtime.getRuntime().availableProcessors();
+        this.mappedParser = false;
+        this.timePasses = false;
+        this.cache = false;
+        this.emit = "asm";
+        this.inlineSize = 8;
+        this.profile = "";
+        this.romBudget = 0;
+        this.instrument = false;
+        this.profileUse = null;
+        this.metrics = null;
+        this.sourceMap = false;
+        this.paths = new ArrayList<>();
+        this.passes = new LinkedHashMap<>();
+        this.passes.put("constant-folding", true);
+        this.passes.put("branch-fusion", true);
+    }
+
+    /**
+     * this method parses the command-line arguments.
+     * every argument that starts with '-' is an option, the rest are input paths
+     *
+     * @param args
+     * @return the parsed options
+     * @throws IllegalArgumentException if an option is unknown
+     */
+    public static Options parse(String[] args) {
+        return parse(args, null);
+    }
+
+    /**
+     * this method parses the command-line arguments of a translation that runs
+     * in another directory than this process (a request to the daemon)
+     *
+     * @param args
+     * @param dir  - the directory relative input, profile and metrics paths are
+     *             resolved against, null for the working directory
+     * @return the parsed options
+     * @throws IllegalArgumentException if an option is unknown
+     */
+    public static Options parse(String[] args, File dir) {
+        Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i].trim();
+            if (!option.startsWith("-")) {
+                options.paths.add(resolve(option, dir));
+                continue;
+            }
+            switch (option) {
+                case "-shared-calls":
+                    options.sharedCalls = true;
+                    break;
+                case "-shared-compare":
+                    options.sharedCompare = true;
+                    break;
+                case "-tos":
+                    options.tosInD = true;
+                    break;
+                case "-no-peephole":
+                    options.peephole = false;
+                    break;
+                case "-no-branch-fusion":
+                    options.passes.put("branch-fusion", false);
+                    break;
+                case "-pass":
+                case "-no-pass":
+                    for (String name : stringValue(args, ++i, option).split(",")) {
+                        options.passes.put(name.trim(), option.equals("-pass"));
+                    }
+                    break;
+                case "-time-passes":
+                    options.timePasses = true;
+                    break;
+                case "-cache":
+                    options.cache = true;
+                    break;
+                case "-emit":
+                    options.emit = stringValue(args, ++i, option);
+                    if (!options.emit.equals("asm") && !options.emit.equals("hack") && !options.emit.equals("bin")) {
+                        throw new IllegalArgumentException("-emit needs asm, hack or bin");
+                    }
+                    break;
+                case "-inline-size":
+                    options.inlineSize = intValue(args, ++i, option);
+                    if (options.inlineSize < 0) {
+                        throw new IllegalArgumentException("-inline-size cannot be negative");
+                    }
+                    break;
+                case "-O2":
+                case "-Os":
+                    options.profile = option.substring(1);
+                    break;
+                case "-rom-budget":
+                    options.romBudget = intValue(args, ++i, option);
+                    if (options.romBudget < 1) {
+                        throw new IllegalArgumentException("-rom-budget needs at least one instruction");
+                    }
+                    break;
+                case "-instrument":
+                    options.instrument = true;
+                    break;
+                case "-profile-use":
+                    String path = stringValue(args, ++i, option);
+                    try {
+                        options.profileUse = Profile.read(new File(resolve(path, dir)));
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException("Cannot read the profile " + path);
+                    }
+                    break;
+                case "-source-map":
+                    options.sourceMap = true;
+                    break;
+                case "-metrics":
+                    options.metrics = resolve(stringValue(args, ++i, option), dir);
+                    break;
+                case "-mmap":
+                    options.mappedParser = true;
+                    break;
+                case "-j":
+                    options.threads = intValue(args, ++i, option);
+                    if (options.threads < 1) {
+                        throw new IllegalArgumentException("-j needs at least one thread");
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + option);
+            }
+        }
+        return options;
+    }
+
+    /**
+     * this helper function resolves a relative path against a directory
+     *
+     * @param path
+     * @param dir  - the directory, null to leave the path as it is
+     * @return the path
+     */
+    private static String resolve(String path, File dir) {
+        if (dir == null || new File(path).isAbsolute()) {
+            return path;
+        }
+        return new File(dir, path).getPath();
+    }
+
+    /**
+     * this helper function reads the value of an option
+     *
+     * @param args
+     * @param index  - the index of the value
+     * @param option - the name of the option, for the error message
+     * @return the value
+     * @throws IllegalArgumentException if the value is missing
+     */
+    private static String stringValue(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for option: " + option);
+        }
+        return args[index].trim();
+    }
+
+    /**
+     * this helper function reads the integer value of an option
+     *
+     * @param args
+     * @param index  - the index of the value
+     * @param option - the name of the option, for the error message
+     * @return the value
+     * @throws IllegalArgumentException if the value is missing or not a number
+     */
+    private static int intValue(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for option: " + option);
+        }
+        try {
+            return Integer.parseInt(args[index].trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for option " + option + ": " + args[index]);
+        }
+    }
+
+    /**
+     * @return the input paths (files or directories) given on the command line
+     */
+    public List<String> getPaths() {
+        return paths;
+    }
+
+    /**
+     * @return the passes that were turned on or off, by name
+     */
+    public Map<String, Boolean> getPasses() {
+        return passes;
+    }
+
+    /**
+     * @return the extension of the output file, with the dot
+     */
+    public String outputExtension() {
+        return "." + emit;
+    }
+
+    /**
+     * @return the options that change the generated code, as text. a cached
+     *         fragment is only reused with the same signature
+     */
+    public String signature() {
+        List<String> enabled = new ArrayList<>();
+        for (Map.Entry<String, Boolean> pass : passes.entrySet()) {
+            if (pass.getValue()) {
+                enabled.add(pass.getKey());
+            }
+        }
+        enabled.sort(null);
+        return "shared-calls=" + sharedCalls + " shared-compare=" + sharedCompare + " peephole=" + peephole
+                + " tos=" + tosInD + " profile=" + profile + " instrument=" + instrument + " passes=" + String.join(",", enabled);
+    }
+
+    /**
+     * @param name
+     * @return true if the pass with the given name should run
+     */
+    public boolean isPassEnabled(String name) {
+        return passes.getOrDefault(name, false);
+    }
+}
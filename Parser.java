@@ -1,160 +1,261 @@
-import java.io.File;
-import java.io.FileReader;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.FileNotFoundException;
-
-public class Parser {
-    private BufferedReader reader;
-    private String currentLine;
-
-    /**
-     * contructor of the parser
-     * 
-     * @param source
-     * @throws FileNotFoundException
-     */
-    public Parser(File source) throws FileNotFoundException {
-        if (source == null) {
-            throw new NullPointerException("source");
-        }
-        if (!source.exists()) {
-            throw new FileNotFoundException(source.getAbsolutePath());
-        }
-        this.reader = new BufferedReader(new FileReader(source));
-        this.currentLine = null;
-    }
-
-    /**
-     * checks if there are more lines in the assembly file
-     * 
-     * @return true or false
-     * @throws IOException
-     */
-    public boolean hasMoreLines() throws IOException {
-        if ((this.currentLine = this.reader.readLine()) != null) {
-            return true;
-        } else {
-            return false;
-        }
-    }
-
-    /**
-     * this method moves the pointer to the next line
-     * this method is called only if hasMoreLines() is true
-     * this method handles empty lines and documentation lines
-     */
-    public void advance() throws IOException {
-        while (currentLine == null || currentLine.trim().isEmpty() || currentLine.trim().startsWith("//")) {
-            currentLine = this.reader.readLine();
-            if (currentLine == null) {
-                break; // exit the loop if end of file is reached
-            }
-        }
-    }
-
-    /**
-     * this method returns the type of the current command
-     * by matching the prefix of the line to the corresponding command.
-     * 
-     * @return C_ARITHMETIC | C_PUSH | C_POP | C_LABEL | C_GOTO | C_IF | C_FUNCTION
-     *         | C_RETURN | C_CALL
-     */
-    public commandType commandType() {
-        if (currentLine.trim().startsWith("pop")) {
-            return commandType.C_POP;
-        } else if (currentLine.trim().startsWith("push")) {
-            return commandType.C_PUSH;
-        } else if (arithmetic(currentLine)) {
-            return commandType.C_ARITHMETIC;
-        } else if (currentLine.trim().startsWith("label")) {
-            return commandType.C_LABEL;
-        } else if (currentLine.trim().startsWith("goto")) {
-            return commandType.C_GOTO;
-        } else if (currentLine.trim().startsWith("if")) {
-            return commandType.C_IF;
-        } else if (currentLine.trim().startsWith("function")) {
-            return commandType.C_FUNCTION;
-        } else if (currentLine.trim().startsWith("call")) {
-            return commandType.C_CALL;
-        } else {
-            return commandType.C_RETURN;
-        }
-    }
-
-    /**
-     * this helper function verifies whether the current line is an arithmetic
-     * command
-     * or not by checking the prefix.
-     * 
-     * @param line
-     * @return true or false
-     */
-    public static boolean arithmetic(String line) {
-        if (line.trim().startsWith("add")) {
-            return true;
-        } else if (line.trim().startsWith("sub")) {
-            return true;
-        } else if (line.trim().startsWith("neg")) {
-            return true;
-        } else if (line.trim().startsWith("eq")) {
-            return true;
-        } else if (line.trim().startsWith("gt")) {
-            return true;
-        } else if (line.trim().startsWith("lt")) {
-            return true;
-        } else if (line.trim().startsWith("and")) {
-            return true;
-        } else if (line.trim().startsWith("or")) {
-            return true;
-        } else if (line.trim().startsWith("not")) {
-            return true;
-        } else {
-            return false;
-        }
-    }
-
-    /**
-     * this method returns the first argument of the current command.
-     * In the case of C_ARITHMETIC the command itself (add, sub, etc.) is returnd.
-     * 
-     * @return string
-     */
-    public String arg1() {
-        currentLine = currentLine.trim();
-        String[] args = currentLine.split(" ");
-        if (commandType().equals(commandType.C_ARITHMETIC)) {
-            // if the command is arithmetic - return the command itself
-            return args[0];
-        }
-        // else, return the next word (=non space string) after the command
-        return args[1];
-    }
-
-    /**
-     * this method returns the second argument of the current command.
-     * Should be called if the current command is C_PUSH, C_POP, C_FUNCTION, C_CALL.
-     * 
-     * @return int
-     */
-    public int arg2() {
-        // find the second "word" after the command itself
-        currentLine = currentLine.trim();
-        String[] args = currentLine.split("\\s+");
-        String answer = args[2].trim();
-
-        // Check if the answer is numeric before parsing
-        if (isNumeric(answer)) {
-            return Integer.parseInt(answer);
-        } else {
-            // Handle the case where the string is not numeric (e.g., log an error, return a
-            // default value, etc.)
-            System.err.println("Invalid numeric input: " + answer);
-            return 0; // or another default value
-        }
-    }
-
-    private boolean isNumeric(String str) {
-        return str.matches("-?\\d+");
-    }
-}
+import java.io.File;
+import java.io.FileReader;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.FileNotFoundException;
+
+public class Parser implements VMParser {
+    private BufferedReader reader;
+    private StringBuilder currentLine;
+    private int lineNumber;
+    private String fileName;
+
+    // the current command
+    private commandType type;
+    private String arg1;
+    private int arg2;
+
+    // the first tokens of the current line, the rest of the line is not read
+    private String[] tokens;
+    private int tokenCount;
+
+    /**
+     * contructor of the parser
+     * 
+     * @param source
+     * @throws FileNotFoundException
+     */
+    public Parser(File source) throws FileNotFoundException {
+        if (source == null) {
+            throw new NullPointerException("source");
+        }
+        if (!source.exists()) {
+            throw new FileNotFoundException(source.getAbsolutePath());
+        }
+        this.reader = new BufferedReader(new FileReader(source));
+        this.currentLine = new StringBuilder();
+        this.lineNumber = 0;
+        this.fileName = source.getName();
+        this.tokens = new String[3];
+    }
+
+    /**
+     * checks if there are more commands in the vm file, and decodes the next one.
+     * empty lines and documentation lines are skipped, so a file that ends with
+     * them has no more lines. the lines are read like MappedParser reads them, so
+     * both parsers accept and reject the same files
+     * 
+     * @return true or false
+     * @throws IOException if the next command is not a legal command
+     */
+    public boolean hasMoreLines() throws IOException {
+        while (readLine()) {
+            lineNumber++;
+            if (tokenize() > 0) {
+                decode();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * the next command was already decoded by hasMoreLines()
+     */
+    public void advance() {
+    }
+
+    /**
+     * this helper method reads the next line into currentLine. only '\n' ends a
+     * line, a '\r' before it is whitespace
+     * 
+     * @return false at the end of the file
+     * @throws IOException
+     */
+    private boolean readLine() throws IOException {
+        currentLine.setLength(0);
+        int c = reader.read();
+        if (c < 0) {
+            return false;
+        }
+        while (c >= 0 && c != '\n') {
+            currentLine.append((char) c);
+            c = reader.read();
+        }
+        return true;
+    }
+
+    /**
+     * this helper method splits the current line into its first tokens. tokens
+     * are separated by spaces, tabs and '\r', and a documentation comment ends
+     * the line, even right after a token
+     * 
+     * @return the number of tokens found, at most 3
+     */
+    private int tokenize() {
+        tokenCount = 0;
+        int end = currentLine.length();
+        int i = 0;
+        while (tokenCount < tokens.length) {
+            while (i < end && isSpace(currentLine.charAt(i))) {
+                i++;
+            }
+            if (i >= end || isComment(i, end)) {
+                break;
+            }
+            int start = i;
+            while (i < end && !isSpace(currentLine.charAt(i)) && !isComment(i, end)) {
+                i++;
+            }
+            tokens[tokenCount++] = currentLine.substring(start, i);
+        }
+        return tokenCount;
+    }
+
+    private boolean isComment(int i, int end) {
+        return currentLine.charAt(i) == '/' && i + 1 < end && currentLine.charAt(i + 1) == '/';
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\r';
+    }
+
+    /**
+     * this method decodes the tokens of the current line into the current
+     * command
+     * 
+     * @throws IOException
+     */
+    private void decode() throws IOException {
+        String command = tokens[0];
+        arg1 = null;
+        arg2 = 0;
+        if (arithmetic(command)) {
+            type = commandType.C_ARITHMETIC;
+            arg1 = command;
+        } else if (command.equals("push") || command.equals("pop")) {
+            type = command.equals("push") ? commandType.C_PUSH : commandType.C_POP;
+            arg1 = argument(1);
+            if (!segment(arg1)) {
+                throw error("Unknown segment");
+            }
+            arg2 = number(argument(2));
+        } else if (command.equals("label") || command.equals("goto") || command.equals("if-goto")) {
+            type = command.equals("label") ? commandType.C_LABEL
+                    : command.equals("goto") ? commandType.C_GOTO : commandType.C_IF;
+            arg1 = argument(1);
+        } else if (command.equals("function") || command.equals("call")) {
+            type = command.equals("function") ? commandType.C_FUNCTION : commandType.C_CALL;
+            arg1 = argument(1);
+            arg2 = number(argument(2));
+        } else if (command.equals("return")) {
+            type = commandType.C_RETURN;
+        } else {
+            throw error("This is not a legal command");
+        }
+    }
+
+    private String argument(int i) throws IOException {
+        if (i >= tokenCount) {
+            throw error("Missing argument");
+        }
+        return tokens[i];
+    }
+
+    /**
+     * this helper function verifies whether a word is an arithmetic command
+     * 
+     * @param word
+     * @return true or false
+     */
+    public static boolean arithmetic(String word) {
+        for (String command : MappedParser.ARITHMETIC) {
+            if (command.equals(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean segment(String word) {
+        for (String segment : MappedParser.SEGMENTS) {
+            if (segment.equals(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * this helper method reads an index: decimal digits, at most 32767, the
+     * largest constant of the Hack platform
+     * 
+     * @param token
+     * @return the index
+     * @throws IOException
+     */
+    private int number(String token) throws IOException {
+        int value = 0;
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c < '0' || c > '9') {
+                throw error("Invalid numeric input");
+            }
+            value = value * 10 + (c - '0');
+            if (value > 32767) {
+                throw error("Invalid numeric input");
+            }
+        }
+        return value;
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " in " + fileName + " line " + lineNumber);
+    }
+
+    /**
+     * this method returns the type of the current command
+     * 
+     * @return C_ARITHMETIC | C_PUSH | C_POP | C_LABEL | C_GOTO | C_IF | C_FUNCTION
+     *         | C_RETURN | C_CALL
+     */
+    public commandType commandType() {
+        return type;
+    }
+
+    /**
+     * this method returns the first argument of the current command.
+     * In the case of C_ARITHMETIC the command itself (add, sub, etc.) is returnd.
+     * 
+     * @return string
+     */
+    public String arg1() {
+        return arg1;
+    }
+
+    /**
+     * this method returns the second argument of the current command.
+     * Should be called if the current command is C_PUSH, C_POP, C_FUNCTION, C_CALL.
+     * 
+     * @return int
+     */
+    public int arg2() {
+        return arg2;
+    }
+
+    /**
+     * @return the line number of the current command
+     */
+    public int lineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * this method closes the vm file
+     * 
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,30 @@
+public interface Pass {
+
+    /**
+     * @return the name of the pass, used to enable it from the command line
+     */
+    String name();
+
+    /**
+     * @return true if the code of one file depends on the other files of the
+     *         program, so the fragment of a file cannot be reused on its own
+     */
+    boolean wholeProgram();
+
+    /**
+     * this method gives the pass the options of the translation before it runs.
+     * most passes have no settings
+     *
+     * @param options
+     */
+    default void configure(Options options) {
+    }
+
+    /**
+     * this method transforms the commands of the program in place.
+     * a pass sees every unit, so it may look across the vm files of a directory
+     *
+     * @param program
+     */
+    void run(Program program);
+}
@@ -0,0 +1,105 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PassManager {
+    private Map<String, Pass> passes;
+    private List<String> timings;
+    // the time of every pass that ran, in nanoseconds, by name
+    private Map<String, Long> nanos;
+
+    /**
+     * constructor of the pass manager. the passes run in the order they are
+     * registered here
+     */
+    public PassManager() {
+        this.passes = new LinkedHashMap<>();
+        this.timings = new ArrayList<>();
+        this.nanos = new LinkedHashMap<>();
+        register(new Inliner());
+        register(new DeadFunctions());
+        register(new ConstantFolding());
+        register(new BranchFusion());
+        register(new TailCalls());
+    }
+
+    /**
+     * this method adds a pass to the pipeline
+     *
+     * @param pass
+     */
+    public void register(Pass pass) {
+        passes.put(pass.name(), pass);
+    }
+
+    /**
+     * @param name
+     * @return the registered pass with the given name, or null
+     */
+    public Pass get(String name) {
+        return passes.get(name);
+    }
+
+    /**
+     * this method checks that every pass that was named on the command line exists
+     *
+     * @param options
+     * @throws IllegalArgumentException if a pass is unknown
+     */
+    public void validate(Options options) {
+        for (String name : options.getPasses().keySet()) {
+            if (!passes.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown pass: " + name + " (available: "
+                        + String.join(", ", passes.keySet()) + ")");
+            }
+        }
+    }
+
+    /**
+     * @param options
+     * @return true if an enabled pass looks across the files of the program
+     */
+    public boolean isWholeProgram(Options options) {
+        for (Pass pass : passes.values()) {
+            if (options.isPassEnabled(pass.name()) && pass.wholeProgram()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * this method runs the enabled passes over the program, timing each one
+     *
+     * @param program
+     * @param options
+     */
+    public void run(Program program, Options options) {
+        for (Pass pass : passes.values()) {
+            if (!options.isPassEnabled(pass.name())) {
+                continue;
+            }
+            long start = System.nanoTime();
+            pass.configure(options);
+            pass.run(program);
+            long elapsed = System.nanoTime() - start;
+            timings.add(String.format("Pass %s: %.3f ms", pass.name(), elapsed / 1e6));
+            nanos.merge(pass.name(), elapsed, Long::sum);
+        }
+    }
+
+    /**
+     * @return one line per pass that ran, with its time
+     */
+    public List<String> getTimings() {
+        return timings;
+    }
+
+    /**
+     * @return the time of every pass that ran, in nanoseconds, by name
+     */
+    public Map<String, Long> getNanos() {
+        return nanos;
+    }
+}
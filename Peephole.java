@@ -0,0 +1,423 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class Peephole {
+
+    // how far back a rule may look for an earlier load of the same address
+    private static final int RELOAD_WINDOW = 8;
+    // the lines at the end of the output that are compared before and after a
+    // rule, to follow the origins of the lines (longer than any rule)
+    private static final int ORIGIN_WINDOW = 16;
+
+    // the lines the rules match and write
+    private static final byte[] SP = AsmBuffer.ascii("@SP");
+    private static final byte[] R13 = AsmBuffer.ascii("@R13");
+    private static final byte[] ZERO = AsmBuffer.ascii("@0");
+    private static final byte[] INC_M = AsmBuffer.ascii("M=M+1");
+    private static final byte[] DEC_M = AsmBuffer.ascii("M=M-1");
+    private static final byte[] DEC_AM = AsmBuffer.ascii("AM=M-1");
+    private static final byte[] A_M = AsmBuffer.ascii("A=M");
+    private static final byte[] M_D = AsmBuffer.ascii("M=D");
+    private static final byte[] D_M = AsmBuffer.ascii("D=M");
+    private static final byte[] D_A = AsmBuffer.ascii("D=A");
+    private static final byte[] ADD_A = AsmBuffer.ascii("D=D+A");
+    // the lines the rules look for at the end of the code, built once rather
+    // than on every try
+    private static final byte[][] INC_DEC_AM = { SP, INC_M, SP, DEC_AM };
+    private static final byte[][] INC_DEC_M = { SP, INC_M, SP, DEC_M };
+    private static final byte[][] STORE_LOAD = { M_D, D_M };
+    private static final byte[][] STORE_TOP_LOAD = { SP, A_M, M_D, SP, A_M };
+    private static final byte[][] CONSTANT_POP = { D_A, R13, M_D, SP, DEC_AM, D_M, R13, A_M, M_D };
+
+    private List<PeepholeRule> rules;
+    // the last lines of the output and their origins before a rule, to follow
+    // the origins of the lines
+    private byte[] tailBytes = new byte[256];
+    private int[] tailStarts = new int[ORIGIN_WINDOW + 1];
+    private int[] tailOrigins = new int[ORIGIN_WINDOW];
+    private int tailSize;
+
+    /**
+     * constructor of an empty peephole optimizer
+     */
+    public Peephole() {
+        this.rules = new ArrayList<>();
+    }
+
+    /**
+     * @return a peephole optimizer with all the default rules registered
+     */
+    public static Peephole defaults() {
+        Peephole peephole = new Peephole();
+        peephole.addRule(Peephole::spIncDec);
+        peephole.addRule(Peephole::storeLoad);
+        peephole.addRule(Peephole::deadLoad);
+        peephole.addRule(Peephole::jumpToNext);
+        peephole.addRule(Peephole::redundantReload);
+        peephole.addRule(Peephole::constantOffset);
+        peephole.addRule(Peephole::constantPop);
+        return peephole;
+    }
+
+    /**
+     * this method registers a rule. rules are tried in the order they were added
+     *
+     * @param rule
+     */
+    public void addRule(PeepholeRule rule) {
+        rules.add(rule);
+    }
+
+    /**
+     * this method optimizes the code of a buffer from an offset, in place.
+     * comment lines are dropped, and then every line is appended to the output
+     * while the rules rewrite the end of the output until none of them applies.
+     * the output is written over the bytes the lines are read from: it never
+     * grows past them, since the lines are trimmed and every rule writes fewer
+     * bytes than it removes. the rules only look at the last few lines, so one
+     * pass is enough
+     *
+     * @param code
+     * @param from - the offset of the code to optimize
+     * @return the number of lines of the optimized code, one instruction or
+     *         label per line
+     */
+    public int optimize(AsmBuffer code, int from) {
+        return optimize(code, from, null);
+    }
+
+    /**
+     * this method optimizes the code of a buffer from an offset, in place, and
+     * follows where every line comes from, for the source map. a rule only
+     * rewrites the end of the output, so the lines it leaves at both ends of the
+     * last few keep their origin, and the lines it writes in between take the
+     * origins of the lines they replace
+     *
+     * @param code
+     * @param from    - the offset of the code to optimize
+     * @param origins - the origin of every line of the code, replaced by the
+     *                origin of every line of the optimized code in its first
+     *                entries; null to follow nothing
+     * @return the number of lines of the optimized code, one instruction or
+     *         label per line
+     */
+    public int optimize(AsmBuffer code, int from, int[] origins) {
+        if (code.length() > from && code.array()[code.length() - 1] != '\n') {
+            code.append('\n');
+        }
+        byte[] bytes = code.array();
+        int length = code.length();
+        AsmLines lines = new AsmLines(bytes, from, (length - from) / 4);
+        int line = 0;
+        for (int i = from; i < length; line++) {
+            int lineEnd = i;
+            while (bytes[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            // trim like String.trim
+            while (i < lineEnd && bytes[i] <= ' ') {
+                i++;
+            }
+            while (lineEnd > i && bytes[lineEnd - 1] <= ' ') {
+                lineEnd--;
+            }
+            if (lineEnd > i && !(bytes[i] == '/' && lineEnd - i > 1 && bytes[i + 1] == '/')) {
+                lines.appendFrom(i, lineEnd - i);
+                if (origins == null) {
+                    while (applyRules(lines)) {
+                    }
+                } else {
+                    origins[lines.size() - 1] = origins[line];
+                    while (true) {
+                        int size = lines.size();
+                        snapshot(lines, origins);
+                        if (!applyRules(lines)) {
+                            break;
+                        }
+                        followOrigins(size, lines, origins);
+                    }
+                }
+            }
+            i = next;
+        }
+        code.truncate(lines.end());
+        return lines.size();
+    }
+
+    /**
+     * this helper method keeps the last lines of the output and their origins
+     * before a rule may rewrite them
+     *
+     * @param lines
+     * @param origins
+     */
+    private void snapshot(AsmLines lines, int[] origins) {
+        int size = lines.size();
+        tailSize = Math.min(size, ORIGIN_WINDOW);
+        int offset = 0;
+        for (int i = 0; i < tailSize; i++) {
+            int line = size - tailSize + i;
+            if (offset + lines.length(line) > tailBytes.length) {
+                tailBytes = Arrays.copyOf(tailBytes, (offset + lines.length(line)) * 2);
+            }
+            tailStarts[i] = offset;
+            offset += lines.copy(line, tailBytes, offset);
+            tailOrigins[i] = origins[line];
+        }
+        tailStarts[tailSize] = offset;
+    }
+
+    /**
+     * this helper method updates the origins of the output after a rule rewrote
+     * its end: the lines that are the same at the start and at the end of the
+     * window keep their origin, the new lines in between take the origins of the
+     * old lines in between, in order
+     *
+     * @param size    - the size of the output before the rule
+     * @param lines   - the output after the rule
+     * @param origins - the origins of the output before the rule, updated
+     */
+    private void followOrigins(int size, AsmLines lines, int[] origins) {
+        int base = size - tailSize;
+        int prefix = base;
+        while (prefix < size && prefix < lines.size() && sameAsTail(lines, prefix, prefix - base)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < size - prefix && suffix < lines.size() - prefix
+                && sameAsTail(lines, lines.size() - 1 - suffix, tailSize - 1 - suffix)) {
+            suffix++;
+        }
+        int removed = size - suffix - prefix;
+        int added = lines.size() - suffix - prefix;
+        for (int i = 0; i < added; i++) {
+            int old = Math.min(removed > 0 ? prefix + Math.min(i, removed - 1) : Math.max(0, prefix - 1), size - 1);
+            // the lines before the window are not touched by the rules
+            origins[prefix + i] = old >= base ? tailOrigins[old - base] : origins[old];
+        }
+        for (int i = 0; i < suffix; i++) {
+            origins[prefix + added + i] = tailOrigins[size - suffix - base + i];
+        }
+    }
+
+    private boolean sameAsTail(AsmLines lines, int line, int tailLine) {
+        return lines.is(line, tailBytes, tailStarts[tailLine], tailStarts[tailLine + 1] - tailStarts[tailLine]);
+    }
+
+    private boolean applyRules(AsmLines code) {
+        for (PeepholeRule rule : rules) {
+            if (rule.apply(code)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * a push immediately followed by a pop:
+     * "@SP, M=M+1, @SP, AM=M-1" becomes "@SP, A=M" and
+     * "@SP, M=M+1, @SP, M=M-1" becomes "@SP"
+     */
+    private static boolean spIncDec(AsmLines code) {
+        if (code.endsWith(INC_DEC_AM)) {
+            code.removeTail(4);
+            code.append(SP);
+            code.append(A_M);
+            return true;
+        }
+        if (code.endsWith(INC_DEC_M)) {
+            code.removeTail(3);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * a value that was just stored does not have to be loaded again:
+     * "M=D, D=M" becomes "M=D", and "@SP, A=M, M=D, @SP, A=M" becomes
+     * "@SP, A=M, M=D" since the stack never points at SP itself
+     */
+    private static boolean storeLoad(AsmLines code) {
+        if (code.endsWith(STORE_LOAD)) {
+            code.removeTail(1);
+            return true;
+        }
+        if (code.endsWith(STORE_TOP_LOAD)) {
+            code.removeTail(2);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * a D register load that is overwritten before it is read:
+     * "D=x, [@y...], D=z" becomes "[@y...], D=z" when z does not read D
+     */
+    private static boolean deadLoad(AsmLines code) {
+        int last = code.size() - 1;
+        if (last < 1 || !isCInstruction(code, last) || !destIsD(code, last) || hasJump(code, last)
+                || compReadsD(code, last)) {
+            return false;
+        }
+        int i = last - 1;
+        while (i >= 0 && code.charAt(i, 0) == '@') {
+            i--;
+        }
+        if (i >= 0 && isCInstruction(code, i) && destIsD(code, i) && !hasJump(code, i)) {
+            code.remove(i, 1);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * a jump to the label that follows it: "@L, 0;JMP, (L)" becomes "(L)"
+     */
+    private static boolean jumpToNext(AsmLines code) {
+        int size = code.size();
+        if (size < 3) {
+            return false;
+        }
+        int label = size - 1;
+        int address = size - 3;
+        int jump = size - 2;
+        if (code.charAt(label, 0) == '(' && code.charAt(address, 0) == '@'
+                && code.length(address) == code.length(label) - 1 && sameSymbol(code, address, label)
+                && isCInstruction(code, jump) && code.indexOf(jump, '=') <= 0 && hasJump(code, jump)) {
+            code.remove(address, 2);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * an address that is loaded again while the A register still holds it:
+     * "@X, [C-instructions that do not write A or jump], @X" drops the last "@X"
+     */
+    private static boolean redundantReload(AsmLines code) {
+        int last = code.size() - 1;
+        if (last < 1 || code.charAt(last, 0) != '@') {
+            return false;
+        }
+        for (int i = last - 1; i >= 0 && i >= last - RELOAD_WINDOW; i--) {
+            if (code.same(i, last)) {
+                code.removeTail(1);
+                return true;
+            }
+            if (!isCInstruction(code, i) || code.contains(i, 'A', 0, Math.max(0, code.indexOf(i, '=')))
+                    || hasJump(code, i)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * an address offset known at translation time, when the next instruction
+     * overwrites A anyway:
+     * "@n, D=A, @m, D=D+A, @Y" becomes "@(n+m), D=A, @Y" and
+     * "@0, D=D+A, @Y" becomes "@Y"
+     */
+    private static boolean constantOffset(AsmLines code) {
+        int size = code.size();
+        if (size < 3 || code.charAt(size - 1, 0) != '@') {
+            return false;
+        }
+        if (code.is(size - 3, ZERO) && code.is(size - 2, ADD_A)) {
+            code.hold(size - 1);
+            code.removeTail(3);
+            code.appendHeld();
+            return true;
+        }
+        if (size >= 5 && isNumber(code, size - 5) && code.is(size - 4, D_A) && isNumber(code, size - 3)
+                && code.is(size - 2, ADD_A)) {
+            long sum = number(code, size - 5) + number(code, size - 3);
+            if (sum <= Short.MAX_VALUE) {
+                code.hold(size - 1);
+                code.removeTail(5);
+                code.appendAddress((int) sum);
+                code.append(D_A);
+                code.appendHeld();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * a pop into an address known at translation time does not need R13:
+     * "@X, D=A, @R13, M=D, @SP, AM=M-1, D=M, @R13, A=M, M=D" becomes
+     * "@SP, AM=M-1, D=M, @X, M=D"
+     */
+    private static boolean constantPop(AsmLines code) {
+        int size = code.size();
+        if (size < 10 || !code.endsWith(CONSTANT_POP)) {
+            return false;
+        }
+        int address = size - 10;
+        if (code.charAt(address, 0) != '@' || code.is(address, R13)) {
+            return false;
+        }
+        code.hold(address);
+        code.removeTail(10);
+        code.append(SP);
+        code.append(DEC_AM);
+        code.append(D_M);
+        code.appendHeld();
+        code.append(M_D);
+        return true;
+    }
+
+    private static boolean isCInstruction(AsmLines code, int line) {
+        return code.charAt(line, 0) != '@' && code.charAt(line, 0) != '(';
+    }
+
+    // the dest of the instruction is D alone
+    private static boolean destIsD(AsmLines code, int line) {
+        return code.indexOf(line, '=') == 1 && code.charAt(line, 0) == 'D';
+    }
+
+    private static boolean hasJump(AsmLines code, int line) {
+        int semi = code.indexOf(line, ';');
+        return semi >= 0 && semi < code.length(line) - 1;
+    }
+
+    private static boolean compReadsD(AsmLines code, int line) {
+        int semi = code.indexOf(line, ';');
+        return code.contains(line, 'D', code.indexOf(line, '=') + 1, semi < 0 ? code.length(line) : semi);
+    }
+
+    // "@L" and "(L)" name the same symbol
+    private static boolean sameSymbol(AsmLines code, int address, int label) {
+        for (int i = 1; i < code.length(address); i++) {
+            if (code.charAt(address, i) != code.charAt(label, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNumber(AsmLines code, int line) {
+        int length = code.length(line);
+        if (length < 2 || code.charAt(line, 0) != '@') {
+            return false;
+        }
+        for (int i = 1; i < length; i++) {
+            if (code.charAt(line, i) < '0' || code.charAt(line, i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the number of "@digits", saturated far above any address
+    private static long number(AsmLines code, int line) {
+        long value = 0;
+        for (int i = 1; i < code.length(line); i++) {
+            value = Math.min(value * 10 + code.charAt(line, i) - '0', Integer.MAX_VALUE);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,13 @@
+public interface PeepholeRule {
+
+    /**
+     * this method tries to rewrite the end of the optimized code.
+     * it is called every time an instruction or a label is appended, so a rule
+     * only has to look at the last few lines. a rule may only write fewer bytes
+     * than it removes, since the code is optimized in place
+     *
+     * @param code - the code optimized so far, one instruction or label per line
+     * @return true if the code was changed
+     */
+    boolean apply(AsmLines code);
+}
@@ -0,0 +1,65 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+public class Profile {
+    // a command is hot if it ran at least 1/HOT_SHARE times as often as the
+    // hottest function, call or label of the program
+    private static final int HOT_SHARE = 100;
+
+    // the counts by file:line
+    private final Map<String, Long> counts = new HashMap<>();
+    private long hottest;
+
+    /**
+     * this function reads a profile written by the Counters tool: one line per
+     * function, call and label command, "count kind file:line name"
+     *
+     * @param file
+     * @return the profile
+     * @throws IOException
+     * @throws IllegalArgumentException if a line is not a count
+     */
+    public static Profile read(File file) throws IOException {
+        Profile profile = new Profile();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII)) {
+            if (line.startsWith("#") || line.isBlank()) {
+                continue;
+            }
+            String[] fields = line.split(" ", 4);
+            long count;
+            try {
+                count = Long.parseLong(fields[0]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid profile line: " + line);
+            }
+            if (fields.length < 3 || count < 0) {
+                throw new IllegalArgumentException("Invalid profile line: " + line);
+            }
+            profile.counts.merge(fields[2], count, Long::sum);
+            profile.hottest = Math.max(profile.hottest, count);
+        }
+        return profile;
+    }
+
+    /**
+     * @param unit
+     * @param i
+     * @return how often a function, call or label command ran, 0 if the profile
+     *         does not know its line
+     */
+    public long count(IR unit, int i) {
+        return counts.getOrDefault(unit.getSource().getName() + ":" + unit.line(i), 0L);
+    }
+
+    /**
+     * @param count
+     * @return true if code that ran count times is hot
+     */
+    public boolean isHot(long count) {
+        return count > 0 && count * HOT_SHARE >= hottest;
+    }
+}
@@ -0,0 +1,270 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class Profiler {
+    // the deepest call stack that is followed through the frames
+    private static final int MAX_DEPTH = 256;
+    // the rows of each flat profile that are printed
+    private static final int TOP = 15;
+
+    // the function and the vm line of every ROM address, as indexes into the
+    // names below (-1 for an address that is not in the map)
+    private final int[] functionOf;
+    private final int[] sourceOf;
+    private final List<String> functions = new ArrayList<>();
+    private final List<String> sources = new ArrayList<>();
+    // true for the functions of the vm code, false for the bootstrap and the
+    // shared routines, which have no frame of their own
+    private final List<Boolean> vmFunctions = new ArrayList<>();
+
+    /**
+     * constructor of the profiler
+     *
+     * @param romSize - the number of instructions of the program
+     * @param map     - the lines of its source map: start, end, file:line,
+     *                function
+     * @throws IllegalArgumentException if a line of the map is invalid
+     */
+    public Profiler(int romSize, List<String> map) {
+        functionOf = new int[romSize];
+        sourceOf = new int[romSize];
+        Arrays.fill(functionOf, -1);
+        Arrays.fill(sourceOf, -1);
+        Map<String, Integer> functionIds = new HashMap<>();
+        Map<String, Integer> sourceIds = new HashMap<>();
+        for (String line : map) {
+            if (line.startsWith("#") || line.isBlank()) {
+                continue;
+            }
+            String[] fields = line.split(" ");
+            if (fields.length != 4) {
+                throw new IllegalArgumentException("Invalid source map line: " + line);
+            }
+            int start;
+            int end;
+            try {
+                start = Integer.parseInt(fields[0]);
+                end = Integer.parseInt(fields[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid source map line: " + line);
+            }
+            int function = functionIds.computeIfAbsent(fields[3], name -> {
+                functions.add(name);
+                vmFunctions.add(!fields[2].equals("-"));
+                return functions.size() - 1;
+            });
+            String sourceName = fields[2] + " " + fields[3];
+            int source = sourceIds.computeIfAbsent(sourceName, name -> {
+                sources.add(name);
+                return sources.size() - 1;
+            });
+            for (int address = Math.max(0, start); address < Math.min(end, romSize); address++) {
+                functionOf[address] = function;
+                sourceOf[address] = source;
+            }
+        }
+    }
+
+    /**
+     * this method runs the program one instruction at a time and attributes every
+     * cycle to the vm line and the function of its instruction, and to the call
+     * stack it runs in. the stack is read from the frames of the vm: the function
+     * of the program counter, then for every frame from LCL the function of the
+     * jump before its return address (the return address is at LCL-5 and the LCL
+     * of the caller at LCL-4). the bootstrap and the shared routines run on top of
+     * the last vm function. the few instructions of a call or a return between
+     * the switch of LCL and the jump are attributed to a stack one frame off
+     *
+     * @param cpu
+     * @param budget     - the maximal number of instructions to execute
+     * @param lineCycles - the cycles of every vm line, filled in
+     * @param selfCycles - the cycles of every function, filled in
+     * @param stacks     - the cycles of every call stack, root first and
+     *                   separated by ';', filled in
+     * @return the status of the cpu: HALTED, BUDGET or END_OF_ROM
+     */
+    public int run(HackCPU cpu, long budget, long[] lineCycles, long[] selfCycles, Map<String, long[]> stacks) {
+        int lastFunction = -1;
+        int lastVmFunction = -1;
+        int lastLocal = -1;
+        long[] stack = null;
+        while (true) {
+            int pc = cpu.getPC();
+            long before = cpu.getCycles();
+            int status = cpu.run(Math.min(budget, before + 1));
+            if (cpu.getCycles() == before) {
+                return status;
+            }
+            int function = pc < functionOf.length ? functionOf[pc] : -1;
+            if (function >= 0) {
+                selfCycles[function]++;
+                lineCycles[sourceOf[pc]]++;
+                if (vmFunctions.get(function)) {
+                    lastVmFunction = function;
+                }
+            }
+            int local = cpu.peek(1);
+            if (stack == null || function != lastFunction || local != lastLocal) {
+                stack = stacks.computeIfAbsent(stack(cpu, function, lastVmFunction), key -> new long[1]);
+                lastFunction = function;
+                lastLocal = local;
+            }
+            stack[0]++;
+            if (status != HackCPU.BUDGET || cpu.getCycles() >= budget) {
+                return status;
+            }
+        }
+    }
+
+    /**
+     * this helper method reads the call stack from the frames of the vm
+     *
+     * @param cpu
+     * @param function       - the function of the program counter, -1 if unknown
+     * @param lastVmFunction - the last vm function that ran, under the bootstrap
+     *                       or a shared routine
+     * @return the functions of the stack, root first, separated by ';'
+     */
+    private String stack(HackCPU cpu, int function, int lastVmFunction) {
+        List<String> frames = new ArrayList<>();
+        frames.add(function < 0 ? "?" : functions.get(function));
+        if (function >= 0 && !vmFunctions.get(function) && lastVmFunction >= 0) {
+            frames.add(functions.get(lastVmFunction));
+        }
+        int local = cpu.peek(1);
+        for (int depth = 0; depth < MAX_DEPTH && local >= 5 && local < HackCPU.HEAP_BASE; depth++) {
+            // the jump of the call, before the return address, is in the caller
+            int returnAddress = cpu.peek(local - 5);
+            if (returnAddress < 1 || returnAddress > functionOf.length) {
+                break;
+            }
+            int caller = functionOf[returnAddress - 1];
+            if (caller < 0 || !vmFunctions.get(caller)) {
+                break;
+            }
+            frames.add(functions.get(caller));
+            int callerLocal = cpu.peek(local - 4);
+            if (callerLocal >= local) {
+                break;
+            }
+            local = callerLocal;
+        }
+        StringBuilder stack = new StringBuilder();
+        for (int i = frames.size() - 1; i >= 0; i--) {
+            stack.append(frames.get(i)).append(i > 0 ? ";" : "");
+        }
+        return stack.toString();
+    }
+
+    /**
+     * this function runs a program on the emulator with its source map
+     * (Name.map, written by -source-map) and attributes its cycles to vm lines
+     * and functions. it prints the hottest functions (self cycles, and total
+     * cycles with the functions they call) and lines, writes the whole flat
+     * profile into Name.prof and the cycles of every call stack into Name.folded,
+     * in the collapsed format of flame graph tools ("Sys.init;Main.fib 1234").
+     * usage: java Profiler <file.asm | file.hack | file.bin> [-budget cycles]
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Error: No program provided");
+            return;
+        }
+        long budget = 100_000_000L;
+        if (args.length >= 3 && args[1].equals("-budget")) {
+            budget = Long.parseLong(args[2]);
+        }
+        File program = new File(args[0]);
+        try {
+            List<String> map = Files.readAllLines(Counters.sibling(program, ".map").toPath(),
+                    StandardCharsets.US_ASCII);
+            HackCPU cpu = new HackCPU(HackAssembler.load(program));
+            Profiler profiler = new Profiler(cpu.getRomSize(), map);
+            long[] lineCycles = new long[profiler.sources.size()];
+            long[] selfCycles = new long[profiler.functions.size()];
+            Map<String, long[]> stacks = new LinkedHashMap<>();
+            int status = profiler.run(cpu, budget, lineCycles, selfCycles, stacks);
+            long cycles = cpu.getCycles();
+            System.out.println("Cycles: " + cycles + " (" + HackCPU.statusName(status) + ")");
+
+            // a function counts the cycles of every stack it is in once, for its total
+            Map<String, Long> totals = new HashMap<>();
+            List<String> folded = new ArrayList<>();
+            for (Map.Entry<String, long[]> stack : stacks.entrySet()) {
+                folded.add(stack.getKey() + " " + stack.getValue()[0]);
+                Set<String> seen = new HashSet<>(List.of(stack.getKey().split(";")));
+                for (String function : seen) {
+                    totals.merge(function, stack.getValue()[0], Long::sum);
+                }
+            }
+            List<String> functionRows = rows(profiler.functions, selfCycles, cycles, totals);
+            List<String> lineRows = rows(profiler.sources, lineCycles, cycles, null);
+
+            List<String> profile = new ArrayList<>();
+            profile.add("# cycles: " + cycles + " (" + HackCPU.statusName(status) + ")");
+            profile.add("# functions: self self% total total% function");
+            profile.addAll(functionRows);
+            profile.add("# lines: self self% file:line function");
+            profile.addAll(lineRows);
+            File profileFile = Counters.sibling(program, ".prof");
+            File foldedFile = Counters.sibling(program, ".folded");
+            Files.write(profileFile.toPath(), profile, StandardCharsets.US_ASCII);
+            Files.write(foldedFile.toPath(), folded, StandardCharsets.US_ASCII);
+
+            System.out.println(String.format("%12s %7s %12s %7s  %s", "self", "self%", "total", "total%",
+                    "function"));
+            functionRows.stream().limit(TOP).forEach(System.out::println);
+            System.out.println(String.format("%12s %7s  %s", "self", "self%", "file:line function"));
+            lineRows.stream().limit(TOP).forEach(System.out::println);
+            System.out.println("Profile written to " + profileFile + ", stacks to " + foldedFile);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * this helper function formats the rows of a flat profile, the most cycles
+     * first, without the names that took none
+     *
+     * @param names
+     * @param self   - the cycles of every name
+     * @param cycles - the cycles of the run
+     * @param totals - the total cycles of every name, null for none
+     * @return the rows
+     */
+    private static List<String> rows(List<String> names, long[] self, long cycles, Map<String, Long> totals) {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            if (self[i] > 0 || (totals != null && totals.getOrDefault(names.get(i), 0L) > 0)) {
+                order.add(i);
+            }
+        }
+        order.sort((a, b) -> Long.compare(self[b], self[a]));
+        List<String> rows = new ArrayList<>();
+        for (int i : order) {
+            String row = String.format("%12d %6.2f%%", self[i], percent(self[i], cycles));
+            if (totals != null) {
+                long total = totals.getOrDefault(names.get(i), 0L);
+                row += String.format(" %12d %6.2f%%", total, percent(total, cycles));
+            }
+            rows.add(row + "  " + names.get(i));
+        }
+        return rows;
+    }
+
+    private static double percent(long part, long whole) {
+        return whole == 0 ? 0 : 100.0 * part / whole;
+    }
+}
@@ -0,0 +1,75 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Program {
+    private List<IR> units;
+    private Map<String, Integer> symbolIds;
+    private List<String> symbols;
+
+    /**
+     * constructor of an empty program
+     */
+    public Program() {
+        this.units = new ArrayList<>();
+        this.symbolIds = new HashMap<>();
+        this.symbols = new ArrayList<>();
+    }
+
+    /**
+     * this method adds a unit (the commands of one vm file) to the program. the
+     * units are lowered in the order they were added
+     *
+     * @param unit
+     */
+    public void add(IR unit) {
+        units.add(unit);
+    }
+
+    public List<IR> getUnits() {
+        return units;
+    }
+
+    /**
+     * this method returns the id of a symbol (a label or a function name), adding
+     * it to the symbol table if it is new. the files of a directory are read in
+     * parallel, so the table is shared between threads
+     *
+     * @param name
+     * @return the id of the symbol
+     */
+    public synchronized int symbol(String name) {
+        Integer id = symbolIds.get(name);
+        if (id == null) {
+            id = symbols.size();
+            symbolIds.put(name, id);
+            symbols.add(name);
+        }
+        return id;
+    }
+
+    /**
+     * @param id
+     * @return the name of the symbol with the given id
+     */
+    public synchronized String symbolName(int id) {
+        return symbols.get(id);
+    }
+
+    /**
+     * @param name
+     * @return the id of the symbol, or IR.NO_SYMBOL if the program does not use it
+     */
+    public synchronized int findSymbol(String name) {
+        Integer id = symbolIds.get(name);
+        return id == null ? IR.NO_SYMBOL : id;
+    }
+
+    /**
+     * @return the number of symbols in the table
+     */
+    public synchronized int symbolCount() {
+        return symbols.size();
+    }
+}
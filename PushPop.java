@@ -0,0 +1,214 @@
+public class PushPop {
+    // how the words of a segment are addressed, by segment id
+    private static final int BASE = 0; // RAM[RAM[pointer] + i]
+    private static final int FIXED = 1; // RAM[base + i]
+    private static final int STATIC = 2; // the variable FileName.i
+    private static final int IMMEDIATE = 3; // the constant i
+
+    private static final int[] MODES = new int[MappedParser.SEGMENTS.length];
+    // the pointer symbol of a BASE segment
+    private static final String[] POINTERS = new String[MappedParser.SEGMENTS.length];
+    // the address of the first word of a FIXED segment
+    private static final int[] ADDRESSES = new int[MappedParser.SEGMENTS.length];
+
+    static {
+        entry(MappedParser.SEG_ARGUMENT, BASE, "ARG", 0);
+        entry(MappedParser.SEG_LOCAL, BASE, "LCL", 0);
+        entry(MappedParser.SEG_THIS, BASE, "THIS", 0);
+        entry(MappedParser.SEG_THAT, BASE, "THAT", 0);
+        entry(MappedParser.SEG_STATIC, STATIC, null, 0);
+        entry(MappedParser.SEG_CONSTANT, IMMEDIATE, null, 0);
+        entry(MappedParser.SEG_POINTER, FIXED, null, 3);
+        entry(MappedParser.SEG_TEMP, FIXED, null, 5);
+    }
+
+    // the instructions of the sequences that compute the address of a BASE
+    // segment word with D=D+A, whatever the index:
+    // load: @P, D=M, @i, A=D+A, D=M
+    private static final int LOAD_COMPUTED = 5;
+    // store D: @R13, M=D, @P, D=M, @i, D=D+A, @R14, M=D, @R13, D=M, @R14, A=M, M=D
+    private static final int STORE_COMPUTED = 13;
+    // pop: @P, D=M, @i, D=D+A, @R13, M=D, @SP, AM=M-1, D=M, @R13, A=M, M=D
+    private static final int POP_COMPUTED = 12;
+    // the top of the stack into D: @SP, AM=M-1, D=M
+    private static final int FILL = 3;
+
+    // the largest indexes that are cheaper to step to with A=M+1, A=A+1, ...
+    // (@P, steps, D=M or M=D) than to compute
+    private static final int LOAD_STEPS = stepLimit(LOAD_COMPUTED);
+    private static final int STORE_STEPS = stepLimit(STORE_COMPUTED);
+    private static final int POP_STEPS = stepLimit(POP_COMPUTED - FILL);
+
+    private static final byte[] PUSH_D = AsmBuffer.ascii("@SP\nA=M\nM=D\n@SP\nM=M+1\n");
+    private static final byte[] PUSH_D_SHORT = AsmBuffer.ascii("@SP\nAM=M+1\nA=A-1\nM=D\n");
+    private static final byte[] PUSH_ALU_CONSTANT = AsmBuffer.ascii("@SP\nAM=M+1\nA=A-1\nM=");
+    private static final byte[] POP_D = AsmBuffer.ascii("@SP\nAM=M-1\nD=M\n");
+    private static final byte[] D_EQUALS_M = AsmBuffer.ascii("\nD=M\n");
+    private static final byte[] M_EQUALS_D = AsmBuffer.ascii("\nM=D\n");
+
+    private static void entry(int segment, int mode, String pointer, int address) {
+        MODES[segment] = mode;
+        POINTERS[segment] = pointer;
+        ADDRESSES[segment] = address;
+    }
+
+    /**
+     * @param index
+     * @return the number of instructions that step A from the pointer to the word
+     *         of the index: A=M for 0, A=M+1 and then A=A+1 for the others
+     */
+    private static int steps(int index) {
+        return Math.max(1, index);
+    }
+
+    /**
+     * @param computed - the instructions of the sequence that computes the address
+     * @return the largest index that is cheaper to step to
+     */
+    private static int stepLimit(int computed) {
+        int index = 0;
+        while (2 + steps(index + 1) < computed) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * this function writes a push of a segment word: the value is loaded into D
+     * and pushed. -1, 0 and 1 are stored straight from the ALU. with the peephole
+     * optimizer the push keeps the "@SP, A=M, M=D, @SP, M=M+1" form, which the
+     * optimizer merges with a following pop or arithmetic command
+     *
+     * @param out
+     * @param segment  - the segment id
+     * @param index
+     * @param fileName - the namespace of the statics
+     * @param peephole
+     */
+    public static void push(AsmBuffer out, int segment, int index, String fileName, boolean peephole) {
+        if (MODES[segment] == IMMEDIATE && index >= -1 && index <= 1) {
+            out.append(PUSH_ALU_CONSTANT).append(index).append('\n');
+            return;
+        }
+        load(out, segment, index, fileName);
+        out.append(peephole ? PUSH_D : PUSH_D_SHORT);
+    }
+
+    /**
+     * this function writes a pop of the top of the stack into a segment word.
+     * the value goes through D when the address is known or a few steps from the
+     * pointer, and through R13 when it has to be computed
+     *
+     * @param out
+     * @param segment  - the segment id
+     * @param index
+     * @param fileName - the namespace of the statics
+     */
+    public static void pop(AsmBuffer out, int segment, int index, String fileName) {
+        if (MODES[segment] == IMMEDIATE) {
+            throw new IllegalArgumentException("Cannot pop to the constant segment");
+        }
+        if (MODES[segment] != BASE || (index >= 0 && index <= POP_STEPS)) {
+            out.append(POP_D);
+            store(out, segment, index, fileName);
+            return;
+        }
+        out.append('@').append(POINTERS[segment]).append(D_EQUALS_M);
+        out.append('@').append(index).append("\nD=D+A\n@R13\nM=D\n");
+        out.append(POP_D).append("@R13\nA=M\nM=D\n");
+    }
+
+    /**
+     * this function writes the load of a segment word into D
+     *
+     * @param out
+     * @param segment  - the segment id
+     * @param index    - a folded constant can be negative
+     * @param fileName - the namespace of the statics
+     */
+    public static void load(AsmBuffer out, int segment, int index, String fileName) {
+        switch (MODES[segment]) {
+            case IMMEDIATE:
+                if (index >= -1 && index <= 1) {
+                    out.append("D=").append(index).append('\n');
+                } else if (index >= 0) {
+                    out.append('@').append(index).append("\nD=A\n");
+                } else if (index > Short.MIN_VALUE) {
+                    out.append('@').append(-index).append("\nD=-A\n");
+                } else {
+                    out.append('@').append(~index).append("\nD=!A\n");
+                }
+                return;
+            case BASE:
+                if (index >= 0 && index <= LOAD_STEPS) {
+                    appendSteps(out, segment, index);
+                    out.append("D=M\n");
+                } else {
+                    out.append('@').append(POINTERS[segment]).append(D_EQUALS_M);
+                    out.append('@').append(index).append("\nA=D+A\nD=M\n");
+                }
+                return;
+            default:
+                appendAddress(out, segment, index, fileName);
+                out.append(D_EQUALS_M);
+        }
+    }
+
+    /**
+     * this function writes the store of D into a segment word. the address of a
+     * word far from its pointer is computed in R14 while R13 holds the value
+     *
+     * @param out
+     * @param segment  - the segment id
+     * @param index
+     * @param fileName - the namespace of the statics
+     */
+    public static void store(AsmBuffer out, int segment, int index, String fileName) {
+        switch (MODES[segment]) {
+            case IMMEDIATE:
+                throw new IllegalArgumentException("Cannot pop to the constant segment");
+            case BASE:
+                if (index >= 0 && index <= STORE_STEPS) {
+                    appendSteps(out, segment, index);
+                    out.append("M=D\n");
+                } else {
+                    out.append("@R13\nM=D\n@").append(POINTERS[segment]).append(D_EQUALS_M);
+                    out.append('@').append(index).append("\nD=D+A\n@R14\nM=D\n@R13\nD=M\n@R14\nA=M\nM=D\n");
+                }
+                return;
+            default:
+                appendAddress(out, segment, index, fileName);
+                out.append(M_EQUALS_D);
+        }
+    }
+
+    /**
+     * this helper function points A at a word of a BASE segment by stepping from
+     * its pointer
+     */
+    private static void appendSteps(AsmBuffer out, int segment, int index) {
+        out.append('@').append(POINTERS[segment]).append('\n');
+        if (index == 0) {
+            out.append("A=M\n");
+            return;
+        }
+        out.append("A=M+1\n");
+        for (int i = 1; i < index; i++) {
+            out.append("A=A+1\n");
+        }
+    }
+
+    /**
+     * this helper function writes the @ instruction of a word at a fixed address
+     * or a static variable
+     */
+    private static void appendAddress(AsmBuffer out, int segment, int index, String fileName) {
+        if (MODES[segment] == STATIC) {
+            out.append('@').append(fileName).append('.').append(index);
+        } else if (segment == MappedParser.SEG_POINTER && (index == 0 || index == 1)) {
+            out.append(index == 0 ? "@THIS" : "@THAT");
+        } else {
+            out.append('@').append(ADDRESSES[segment] + index);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PushPopCheck {
+    // the memory the checked code starts with
+    private static final int SP = 258;
+    private static final int LCL = 300;
+    private static final int ARG = 400;
+    private static final int THIS = 3000;
+    private static final int THAT = 3100;
+    // the static of the checked file is its only variable, so it is at 16
+    private static final int STATIC_ADDRESS = 16;
+    private static final int[] INDEXES = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 20, 100 };
+    private static final int[] CONSTANTS = { 0, 1, -1, 2, 17, 32767, -2, -300, -32767, -32768 };
+    private static final int POPPED = 1234;
+
+    /**
+     * this function translates every combination of segment, index and direction
+     * with and without the peephole optimizer and -tos, runs the code on the
+     * emulator and compares the memory with the vm semantics of the commands:
+     * a push alone, a pop alone, a constant pushed and popped, and a word pushed
+     * twice and added. words above the stack pointer and the scratch registers
+     * R13-R15 are not compared.
+     * usage: java PushPopCheck [-v]
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        boolean verbose = args.length > 0 && args[0].equals("-v");
+        int checks = 0;
+        List<String> failures = new ArrayList<>();
+        for (int mode = 0; mode < 4; mode++) {
+            Options options = new Options();
+            options.peephole = (mode & 1) == 0;
+            options.tosInD = (mode & 2) != 0;
+            String name = (options.peephole ? "peephole" : "no-peephole") + (options.tosInD ? " -tos" : "");
+            for (int segment = 0; segment < MappedParser.SEGMENTS.length; segment++) {
+                for (int index : indexes(segment)) {
+                    for (int[][] commands : sequences(segment, index)) {
+                        String problem = check(commands, options);
+                        checks++;
+                        if (problem != null) {
+                            failures.add(name + ": " + describe(commands) + ": " + problem);
+                        } else if (verbose) {
+                            System.out.println("ok   " + name + ": " + describe(commands));
+                        }
+                    }
+                }
+            }
+        }
+        for (String failure : failures) {
+            System.out.println("FAIL " + failure);
+        }
+        System.out.println(checks + " checks, " + failures.size() + " failed");
+        if (!failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param segment
+     * @return the indexes that are checked for a segment
+     */
+    private static int[] indexes(int segment) {
+        switch (segment) {
+            case MappedParser.SEG_CONSTANT:
+                return CONSTANTS;
+            case MappedParser.SEG_POINTER:
+                return new int[] { 0, 1 };
+            case MappedParser.SEG_TEMP:
+                return new int[] { 0, 1, 2, 3, 4, 5, 6, 7 };
+            default:
+                return INDEXES;
+        }
+    }
+
+    /**
+     * @param segment
+     * @param index
+     * @return the command sequences of a segment word, each command as {op,
+     *         segment, index} with the ops of IR
+     */
+    private static List<int[][]> sequences(int segment, int index) {
+        int[] push = { IR.PUSH, segment, index };
+        int[] pop = { IR.POP, segment, index };
+        int[] add = { IR.ARITHMETIC, IR.ADD, 0 };
+        List<int[][]> sequences = new ArrayList<>();
+        sequences.add(new int[][] { push });
+        sequences.add(new int[][] { push, push, add });
+        if (segment != MappedParser.SEG_CONSTANT) {
+            sequences.add(new int[][] { pop });
+            sequences.add(new int[][] { { IR.PUSH, MappedParser.SEG_CONSTANT, POPPED }, pop });
+            sequences.add(new int[][] { push, { IR.PUSH, MappedParser.SEG_CONSTANT, 1 }, add, pop });
+        }
+        return sequences;
+    }
+
+    /**
+     * this function runs one sequence of commands translated and on the model
+     *
+     * @param commands
+     * @param options
+     * @return what differs, or null
+     */
+    private static String check(int[][] commands, Options options) {
+        AsmBuffer out = new AsmBuffer();
+        CodeWriter coder = new CodeWriter(out, new File("Check.vm"), options);
+        for (int[] command : commands) {
+            if (command[0] == IR.ARITHMETIC) {
+                coder.WriteArithmetic(MappedParser.ARITHMETIC[command[1]]);
+            } else {
+                coder.WritePushPop(command[0] == IR.PUSH ? commandType.C_PUSH : commandType.C_POP, command[1],
+                        command[2]);
+            }
+        }
+        coder.close();
+        out.append("(Check$END)\n@Check$END\n0;JMP\n");
+
+        HackCPU cpu = new HackCPU(HackAssembler.assemble(out.toString()));
+        short[] expected = new short[HackCPU.RAM_SIZE];
+        initialize(expected);
+        for (int address = 0; address < HackCPU.RAM_SIZE; address++) {
+            cpu.poke(address, expected[address]);
+        }
+        for (int[] command : commands) {
+            execute(expected, command);
+        }
+        int status = cpu.run(10_000);
+        if (status != HackCPU.HALTED) {
+            return HackCPU.statusName(status);
+        }
+        for (int address = 0; address < HackCPU.RAM_SIZE; address++) {
+            boolean scratch = address >= 13 && address <= 15;
+            boolean aboveStack = address >= expected[0] && address < HackCPU.HEAP_BASE;
+            if (!scratch && !aboveStack && cpu.peek(address) != expected[address]) {
+                return "RAM[" + address + "] is " + cpu.peek(address) + ", expected " + expected[address];
+            }
+        }
+        return null;
+    }
+
+    private static void initialize(short[] ram) {
+        for (int address = 0; address < HackCPU.RAM_SIZE; address++) {
+            ram[address] = (short) (address * 3 + 1);
+        }
+        ram[0] = SP;
+        ram[1] = LCL;
+        ram[2] = ARG;
+        ram[3] = THIS;
+        ram[4] = THAT;
+    }
+
+    /**
+     * this function executes a command on the model of the vm
+     *
+     * @param ram
+     * @param command
+     */
+    private static void execute(short[] ram, int[] command) {
+        int sp = ram[0];
+        if (command[0] == IR.ARITHMETIC) {
+            ram[sp - 2] = (short) (ram[sp - 2] + ram[sp - 1]);
+            ram[0] = (short) (sp - 1);
+        } else if (command[0] == IR.PUSH) {
+            ram[sp] = command[1] == MappedParser.SEG_CONSTANT ? (short) command[2]
+                    : ram[address(ram, command[1], command[2])];
+            ram[0] = (short) (sp + 1);
+        } else {
+            ram[0] = (short) (sp - 1);
+            ram[address(ram, command[1], command[2])] = ram[sp - 1];
+        }
+    }
+
+    private static int address(short[] ram, int segment, int index) {
+        switch (segment) {
+            case MappedParser.SEG_LOCAL:
+                return ram[1] + index;
+            case MappedParser.SEG_ARGUMENT:
+                return ram[2] + index;
+            case MappedParser.SEG_THIS:
+                return ram[3] + index;
+            case MappedParser.SEG_THAT:
+                return ram[4] + index;
+            case MappedParser.SEG_POINTER:
+                return 3 + index;
+            case MappedParser.SEG_TEMP:
+                return 5 + index;
+            case MappedParser.SEG_STATIC:
+                return STATIC_ADDRESS;
+            default:
+                throw new IllegalArgumentException("No address in the " + MappedParser.SEGMENTS[segment] + " segment");
+        }
+    }
+
+    private static String describe(int[][] commands) {
+        StringBuilder text = new StringBuilder();
+        for (int[] command : commands) {
+            if (text.length() > 0) {
+                text.append(", ");
+            }
+            if (command[0] == IR.ARITHMETIC) {
+                text.append(MappedParser.ARITHMETIC[command[1]]);
+            } else {
+                text.append(command[0] == IR.PUSH ? "push " : "pop ").append(MappedParser.SEGMENTS[command[1]])
+                        .append(' ').append(command[2]);
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,114 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class SourceMap {
+    // the name of the code of the bootstrap before its first shared routine
+    public static final String BOOTSTRAP = "$bootstrap";
+
+    // the command every instruction of a unit comes from, by unit. the units are
+    // lowered by several threads
+    private final Map<IR, int[]> origins = new ConcurrentHashMap<>();
+
+    /**
+     * this method keeps the origins of the instructions of a lowered unit
+     *
+     * @param unit
+     * @param unitOrigins - the index of the command of every instruction, -1 for
+     *                    code before the first command
+     */
+    public void add(IR unit, int[] unitOrigins) {
+        origins.put(unit, unitOrigins);
+    }
+
+    /**
+     * this method builds the map of the output: one entry per range of
+     * instructions that come from the same vm line of the same function,
+     * "start end file:line function" with the ROM addresses [start, end).
+     * the bootstrap comes first, split at its shared routines ($$CALL, $$EQ, ...),
+     * with "-" for the file and line
+     *
+     * @param bootstrap - the code of the bootstrap
+     * @param program   - the units in the order of the output
+     * @return the entries
+     */
+    public List<String> entries(AsmBuffer bootstrap, Program program) {
+        List<String> entries = new ArrayList<>();
+        int address = 0;
+        int rangeStart = 0;
+        String function = BOOTSTRAP;
+        for (String line : bootstrap.toString().split("\n")) {
+            if (line.isEmpty() || line.startsWith("/")) {
+                continue;
+            }
+            if (!line.startsWith("(")) {
+                address++;
+                continue;
+            }
+            String label = line.substring(1, line.length() - 1);
+            if (label.startsWith("$$") && label.indexOf('.') < 0) {
+                if (address > rangeStart) {
+                    entries.add(rangeStart + " " + address + " - " + function);
+                }
+                function = label;
+                rangeStart = address;
+            }
+        }
+        if (address > rangeStart) {
+            entries.add(rangeStart + " " + address + " - " + function);
+        }
+
+        for (IR unit : program.getUnits()) {
+            int[] unitOrigins = origins.get(unit);
+            if (unitOrigins == null) {
+                continue;
+            }
+            // the function of every command, the file name before the first one
+            String[] functions = new String[unit.size()];
+            function = unit.getSource().getName();
+            for (int i = 0; i < unit.size(); i++) {
+                if (unit.op(i) == IR.FUNCTION) {
+                    function = program.symbolName(unit.symbol(i));
+                }
+                functions[i] = function;
+            }
+            String source = null;
+            rangeStart = address;
+            for (int origin : unitOrigins) {
+                String next = unit.getSource().getName() + ":" + (origin < 0 ? 0 : unit.line(origin)) + " "
+                        + (origin < 0 ? unit.getSource().getName() : functions[origin]);
+                if (!next.equals(source)) {
+                    if (source != null) {
+                        entries.add(rangeStart + " " + address + " " + source);
+                    }
+                    source = next;
+                    rangeStart = address;
+                }
+                address++;
+            }
+            if (source != null) {
+                entries.add(rangeStart + " " + address + " " + source);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * this function writes the source map of a program next to it (Name.map)
+     *
+     * @param outputFile - the translated program
+     * @param entries    - the lines of the map
+     * @throws IOException
+     */
+    public static void write(File outputFile, List<String> entries) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("# start end file:line function");
+        lines.addAll(entries);
+        Files.write(Counters.sibling(outputFile, ".map").toPath(), lines, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,314 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Stats {
+    // number of Hack instructions actually written to the output
+    private long instructions;
+    // number of Hack instructions the default inline lowering would have written
+    private long inlineInstructions;
+    // number of Hack instructions before the peephole optimizer
+    private long unoptimizedInstructions;
+    // number of tail calls, which need the shared tail call routine
+    private long tailCalls;
+    // the functions that were dropped by the dead-functions pass
+    private List<String> removedFunctions = new ArrayList<>();
+    // number of Hack instructions the dropped functions would have taken
+    private long removedInstructions;
+    // the calls that were replaced by the body of the callee, by the inline pass
+    private List<String> inlinedCalls = new ArrayList<>();
+    // the counters of an instrumented program: address, kind, file:line and name
+    private List<String> counters = new ArrayList<>();
+    // the source map of the output: start, end, file:line and function
+    private List<String> sourceMap = new ArrayList<>();
+    // number of files whose fragment was reused from the cache
+    private int cachedFiles;
+    // number of files that were translated
+    private int translatedFiles;
+
+    // the phases of the translation of a file that -metrics times
+    public static final int READ = 0;
+    public static final int LOWER = 1;
+    public static final int CACHE = 2;
+    // with -metrics: the wall time of every phase, in nanoseconds
+    private long[] nanos = new long[3];
+    // with -metrics: the lines of the vm files, the commands that were parsed and
+    // lowered, and the instructions and labels emitted before the peephole
+    // optimizer, by commandType
+    private long lines;
+    private long[] parsedCommands = new long[commandType.values().length];
+    private long[] loweredCommands = new long[commandType.values().length];
+    private long[] emittedInstructions = new long[commandType.values().length];
+    private long[] emittedLabels = new long[commandType.values().length];
+    // with -metrics: by function, the lowered commands, the instructions and labels
+    // emitted before the peephole optimizer and the instructions and labels in the
+    // output
+    private Map<String, long[]> functions = new LinkedHashMap<>();
+    // the report of the run with -metrics, null without
+    private Metrics metrics;
+
+    /**
+     * adds the counters of a code writer to the totals of the translation
+     *
+     * @param coder
+     */
+    public void add(CodeWriter coder) {
+        instructions += coder.getInstructionCount();
+        inlineInstructions += coder.getInlineInstructionCount();
+        unoptimizedInstructions += coder.getUnoptimizedInstructionCount();
+        tailCalls += coder.getTailCallCount();
+    }
+
+    /**
+     * adds the totals of another translation, for example of a single file
+     *
+     * @param other
+     */
+    public void add(Stats other) {
+        instructions += other.instructions;
+        inlineInstructions += other.inlineInstructions;
+        unoptimizedInstructions += other.unoptimizedInstructions;
+        tailCalls += other.tailCalls;
+        removedFunctions.addAll(other.removedFunctions);
+        removedInstructions += other.removedInstructions;
+        inlinedCalls.addAll(other.inlinedCalls);
+        cachedFiles += other.cachedFiles;
+        translatedFiles += other.translatedFiles;
+        lines += other.lines;
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] += other.nanos[i];
+        }
+        for (int i = 0; i < parsedCommands.length; i++) {
+            parsedCommands[i] += other.parsedCommands[i];
+            loweredCommands[i] += other.loweredCommands[i];
+            emittedInstructions[i] += other.emittedInstructions[i];
+            emittedLabels[i] += other.emittedLabels[i];
+        }
+        for (Map.Entry<String, long[]> function : other.functions.entrySet()) {
+            long[] sizes = function(function.getKey());
+            for (int i = 0; i < sizes.length; i++) {
+                sizes[i] += function.getValue()[i];
+            }
+        }
+    }
+
+    /**
+     * adds the counters of a fragment that was not written by a code writer, for
+     * example one that was read from the cache
+     *
+     * @param instructions
+     * @param inlineInstructions
+     * @param unoptimizedInstructions
+     * @param tailCalls
+     */
+    public void add(long instructions, long inlineInstructions, long unoptimizedInstructions, long tailCalls) {
+        this.instructions += instructions;
+        this.inlineInstructions += inlineInstructions;
+        this.unoptimizedInstructions += unoptimizedInstructions;
+        this.tailCalls += tailCalls;
+    }
+
+    /**
+     * counts a file of the translation
+     *
+     * @param cached - true if its fragment was reused from the cache
+     */
+    public void addFile(boolean cached) {
+        if (cached) {
+            cachedFiles++;
+        } else {
+            translatedFiles++;
+        }
+    }
+
+    /**
+     * adds functions that were dropped from the output
+     *
+     * @param names
+     * @param instructions - the instructions their code would have taken
+     */
+    public void addRemoved(List<String> names, long instructions) {
+        removedFunctions.addAll(names);
+        removedInstructions += instructions;
+    }
+
+    /**
+     * adds the call sites the inline pass replaced
+     *
+     * @param calls - one line per call site
+     */
+    public void addInlined(List<String> calls) {
+        inlinedCalls.addAll(calls);
+    }
+
+    /**
+     * adds the wall time of a phase of the translation (with -metrics)
+     *
+     * @param phase - READ, LOWER or CACHE
+     * @param nanos
+     */
+    public void addTime(int phase, long nanos) {
+        this.nanos[phase] += nanos;
+    }
+
+    /**
+     * counts the lines of a vm file and the commands that were parsed from it
+     * (with -metrics)
+     *
+     * @param unit  - the commands, before the passes
+     * @param lines
+     */
+    public void addParsed(IR unit, long lines) {
+        this.lines += lines;
+        for (int i = 0; i < unit.size(); i++) {
+            commandType type = IR.commandType(unit.op(i));
+            if (type != null) {
+                parsedCommands[type.ordinal()]++;
+            }
+        }
+    }
+
+    /**
+     * counts a lowered command and the code emitted for it before the peephole
+     * optimizer (with -metrics)
+     *
+     * @param type
+     * @param function     - the function the command is in
+     * @param instructions
+     * @param labels
+     */
+    public void addLowered(commandType type, String function, long instructions, long labels) {
+        loweredCommands[type.ordinal()]++;
+        emittedInstructions[type.ordinal()] += instructions;
+        emittedLabels[type.ordinal()] += labels;
+        long[] sizes = function(function);
+        sizes[0]++;
+        sizes[1] += instructions;
+        sizes[2] += labels;
+    }
+
+    /**
+     * adds the code of a function in the output, after the peephole optimizer
+     * (with -metrics)
+     *
+     * @param function
+     * @param instructions
+     * @param labels
+     */
+    public void addFunctionOutput(String function, long instructions, long labels) {
+        long[] sizes = function(function);
+        sizes[3] += instructions;
+        sizes[4] += labels;
+    }
+
+    /**
+     * this helper method finds the sizes of a function, adding it if it is new
+     *
+     * @param function
+     * @return commands, emitted instructions, emitted labels, output
+     *         instructions and output labels
+     */
+    private long[] function(String function) {
+        return functions.computeIfAbsent(function, name -> new long[5]);
+    }
+
+    public long getTime(int phase) {
+        return nanos[phase];
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public long[] getParsedCommands() {
+        return parsedCommands;
+    }
+
+    public long[] getLoweredCommands() {
+        return loweredCommands;
+    }
+
+    public long[] getEmittedInstructions() {
+        return emittedInstructions;
+    }
+
+    public long[] getEmittedLabels() {
+        return emittedLabels;
+    }
+
+    /**
+     * @return by function: commands, emitted instructions, emitted labels, output
+     *         instructions and output labels
+     */
+    public Map<String, long[]> getFunctions() {
+        return functions;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public void setCounters(List<String> counters) {
+        this.counters = counters;
+    }
+
+    public List<String> getCounters() {
+        return counters;
+    }
+
+    public void setSourceMap(List<String> sourceMap) {
+        this.sourceMap = sourceMap;
+    }
+
+    public List<String> getSourceMap() {
+        return sourceMap;
+    }
+
+    public long getInstructions() {
+        return instructions;
+    }
+
+    public long getInlineInstructions() {
+        return inlineInstructions;
+    }
+
+    public long getUnoptimizedInstructions() {
+        return unoptimizedInstructions;
+    }
+
+    public long getTailCalls() {
+        return tailCalls;
+    }
+
+    public List<String> getRemovedFunctions() {
+        return removedFunctions;
+    }
+
+    public long getRemovedInstructions() {
+        return removedInstructions;
+    }
+
+    public List<String> getInlinedCalls() {
+        return inlinedCalls;
+    }
+
+    public int getCachedFiles() {
+        return cachedFiles;
+    }
+
+    public int getTranslatedFiles() {
+        return translatedFiles;
+    }
+
+    /**
+     * @return the ROM words saved against the inline output
+     */
+    public long getSaved() {
+        return inlineInstructions - instructions;
+    }
+}
@@ -0,0 +1,41 @@
+public class TailCalls implements Pass {
+
+    public String name() {
+        return "tail-calls";
+    }
+
+    public boolean wholeProgram() {
+        return false;
+    }
+
+    /**
+     * this method replaces every call that is immediately followed by return, in
+     * a function, with one TAIL_CALL. the callee then runs in the frame of the
+     * current function and returns straight to its caller, so tail recursion runs
+     * in constant stack space
+     *
+     * @param program
+     */
+    public void run(Program program) {
+        for (IR unit : program.getUnits()) {
+            boolean inFunction = false;
+            boolean changed = false;
+            for (int i = 0; i + 1 < unit.size(); i++) {
+                if (unit.op(i) == IR.FUNCTION) {
+                    inFunction = true;
+                }
+                // the code before the first function has no frame to reuse
+                if (!inFunction || unit.op(i) != IR.CALL || unit.op(i + 1) != IR.RETURN) {
+                    continue;
+                }
+                unit.set(i, IR.TAIL_CALL, 0, unit.index(i), unit.symbol(i));
+                unit.remove(i + 1);
+                i++;
+                changed = true;
+            }
+            if (changed) {
+                unit.compact();
+            }
+        }
+    }
+}
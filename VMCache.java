@@ -0,0 +1,179 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class VMCache {
+    // the first bytes of every cache entry
+    private static final int MAGIC = 0x564d4332;
+
+    private static String version;
+
+    private File dir;
+    private String prefix;
+
+    /**
+     * constructor of the cache
+     *
+     * @param dir     - the directory of the entries, created if needed
+     * @param options - the options of the translation, part of every key
+     * @throws IOException
+     */
+    public VMCache(File dir, Options options) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir.toPath());
+        this.prefix = translatorVersion() + "\n" + options.signature() + "\n";
+    }
+
+    /**
+     * this method computes the key of a vm file: a hash of its name and content,
+     * the translator version and the options. the name is part of the key because
+     * the statics and labels of a fragment are named after its file
+     *
+     * @param vmFile
+     * @return the key, as hex digits
+     * @throws IOException
+     */
+    public String key(File vmFile) throws IOException {
+        MessageDigest digest = sha256();
+        digest.update(prefix.getBytes(StandardCharsets.UTF_8));
+        digest.update(vmFile.getName().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(Files.readAllBytes(vmFile.toPath()));
+        return hex(digest.digest());
+    }
+
+    /**
+     * this method reads the fragment of a key
+     *
+     * @param key
+     * @param stats - the counters of the fragment are added to it
+     * @return the fragment, or null if it is not in the cache
+     */
+    public AsmBuffer load(String key, Stats stats) {
+        Path path = entry(key);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try {
+            ByteBuffer entry = ByteBuffer.wrap(Files.readAllBytes(path));
+            if (entry.remaining() < 40 || entry.getInt() != MAGIC) {
+                return null;
+            }
+            long instructions = entry.getLong();
+            long inlineInstructions = entry.getLong();
+            long unoptimizedInstructions = entry.getLong();
+            long tailCalls = entry.getLong();
+            int length = entry.getInt();
+            if (length != entry.remaining()) {
+                return null;
+            }
+            byte[] code = new byte[length];
+            entry.get(code);
+            stats.add(instructions, inlineInstructions, unoptimizedInstructions, tailCalls);
+            return new AsmBuffer(length).append(code);
+        } catch (IOException e) {
+            // an unreadable entry is a miss
+            return null;
+        }
+    }
+
+    /**
+     * this method writes the fragment of a key. the entry is written to a
+     * temporary file and moved into place, so a reader never sees half an entry
+     *
+     * @param key
+     * @param code
+     * @param stats - the counters of the fragment
+     * @throws IOException
+     */
+    public void store(String key, AsmBuffer code, Stats stats) throws IOException {
+        ByteBuffer body = code.asByteBuffer();
+        ByteBuffer entry = ByteBuffer.allocate(40 + body.remaining());
+        entry.putInt(MAGIC);
+        entry.putLong(stats.getInstructions());
+        entry.putLong(stats.getInlineInstructions());
+        entry.putLong(stats.getUnoptimizedInstructions());
+        entry.putLong(stats.getTailCalls());
+        entry.putInt(body.remaining());
+        entry.put(body);
+        Path temp = Files.createTempFile(dir.toPath(), key, ".tmp");
+        Files.write(temp, entry.array());
+        Files.move(temp, entry(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path entry(String key) {
+        return new File(dir, key + ".asm").toPath();
+    }
+
+    /**
+     * this function computes the version of the translator: a hash of its class
+     * files, so a rebuilt translator never reuses the fragments of an older one
+     *
+     * @return the version, as hex digits
+     * @throws IOException
+     */
+    public static synchronized String translatorVersion() throws IOException {
+        if (version != null) {
+            return version;
+        }
+        MessageDigest digest = sha256();
+        CodeSource source = VMCache.class.getProtectionDomain().getCodeSource();
+        Path location = null;
+        try {
+            location = source == null ? null : Path.of(source.getLocation().toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            location = null;
+        }
+        if (location != null && Files.isDirectory(location)) {
+            List<Path> classes = new ArrayList<>();
+            try (Stream<Path> files = Files.list(location)) {
+                files.filter(f -> f.toString().endsWith(".class")).sorted().forEach(classes::add);
+            }
+            for (Path file : classes) {
+                digest.update(file.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+                digest.update(Files.readAllBytes(file));
+            }
+        } else if (location != null && Files.isRegularFile(location)) {
+            digest.update(Files.readAllBytes(location));
+        } else {
+            // unknown location: hash the classes that generate the code
+            for (String name : new String[] { "Main", "CodeWriter", "Peephole", "IR" }) {
+                try (InputStream in = VMCache.class.getResourceAsStream(name + ".class")) {
+                    if (in != null) {
+                        digest.update(in.readAllBytes());
+                    }
+                }
+            }
+        }
+        version = hex(digest.digest());
+        return version;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,524 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class VMInterpreter {
+    // the opcodes of the decoded instructions
+    private static final int PUSH_CONSTANT = 0;
+    // push/pop through a base pointer (LCL, ARG, THIS, THAT)
+    private static final int PUSH_SEGMENT = 1;
+    private static final int POP_SEGMENT = 2;
+    // push/pop of a fixed address (temp, pointer, static)
+    private static final int PUSH_FIXED = 3;
+    private static final int POP_FIXED = 4;
+    private static final int ADD = 5;
+    private static final int SUB = 6;
+    private static final int NEG = 7;
+    private static final int EQ = 8;
+    private static final int GT = 9;
+    private static final int LT = 10;
+    private static final int AND = 11;
+    private static final int OR = 12;
+    private static final int NOT = 13;
+    private static final int GOTO = 14;
+    private static final int IF = 15;
+    private static final int COMPARE_IF = 16;
+    private static final int FUNCTION = 17;
+    private static final int CALL = 18;
+    private static final int RETURN = 19;
+    private static final int TAIL_CALL = 20;
+
+    // the reasons the interpreter stopped
+    public static final int HALTED = 0;
+    public static final int BUDGET = 1;
+    public static final int END_OF_CODE = 2;
+    public static final int NO_CALLER = 3;
+
+    // the base pointer of each segment id, 0 for the segments with fixed addresses
+    private static final int[] BASE = { 2, 1, 0, 0, 3, 4, 0, 0 };
+
+    private int[] code;
+    private int[] argA;
+    private int[] argB;
+    private short[] ram;
+    private List<String> staticNames;
+    private int[] returns;
+    private int depth;
+    private int pc;
+    private long steps;
+
+    /**
+     * constructor of the interpreter. decodes the program into one array of
+     * instructions, resolving labels in the scope of their function, calls to
+     * the first instruction of their function, and statics to addresses from 16 in
+     * the order they first appear, like the assembler does with the translated
+     * code. then it runs the bootstrap: SP = 256 and a call to Sys.init, or, if
+     * the program does not define Sys.init, SP = 256 and the first command
+     *
+     * @param program
+     * @throws IllegalArgumentException if a label or a function is not defined
+     */
+    public VMInterpreter(Program program) {
+        List<IR> units = program.getUnits();
+        // first pass: the address of every label and function
+        Map<Long, Integer> labels = new HashMap<>();
+        Map<Integer, Integer> functions = new HashMap<>();
+        int size = 0;
+        for (int u = 0; u < units.size(); u++) {
+            IR unit = units.get(u);
+            int scope = -1 - u;
+            for (int i = 0; i < unit.size(); i++) {
+                if (unit.op(i) == IR.FUNCTION) {
+                    scope = unit.symbol(i);
+                    functions.put(scope, size);
+                }
+                if (unit.op(i) == IR.LABEL) {
+                    labels.put(labelKey(scope, unit.symbol(i)), size);
+                } else {
+                    size++;
+                }
+            }
+        }
+
+        // second pass: the instructions
+        code = new int[size];
+        argA = new int[size];
+        argB = new int[size];
+        staticNames = new ArrayList<>();
+        Map<String, Integer> statics = new HashMap<>();
+        int pc = 0;
+        for (int u = 0; u < units.size(); u++) {
+            IR unit = units.get(u);
+            int scope = -1 - u;
+            for (int i = 0; i < unit.size(); i++) {
+                int op = unit.op(i);
+                if (op == IR.LABEL) {
+                    continue;
+                }
+                switch (op) {
+                    case IR.PUSH:
+                    case IR.POP:
+                        decodePushPop(pc, op == IR.PUSH, unit, i, statics);
+                        break;
+                    case IR.ARITHMETIC:
+                        code[pc] = ADD + unit.arg(i);
+                        break;
+                    case IR.GOTO:
+                    case IR.IF:
+                        code[pc] = op == IR.GOTO ? GOTO : IF;
+                        argB[pc] = target(labels, scope, unit.symbol(i), program);
+                        break;
+                    case IR.COMPARE_IF:
+                        code[pc] = COMPARE_IF;
+                        argA[pc] = EQ - IR.EQ + unit.arg(i) | unit.index(i) << 8;
+                        argB[pc] = target(labels, scope, unit.symbol(i), program);
+                        break;
+                    case IR.FUNCTION:
+                        scope = unit.symbol(i);
+                        code[pc] = FUNCTION;
+                        argA[pc] = unit.index(i);
+                        break;
+                    case IR.CALL:
+                    case IR.TAIL_CALL:
+                        Integer function = functions.get(unit.symbol(i));
+                        if (function == null) {
+                            throw new IllegalArgumentException("Unknown function: "
+                                    + program.symbolName(unit.symbol(i)) + " in " + unit.getSource().getName()
+                                    + " line " + unit.line(i));
+                        }
+                        code[pc] = op == IR.CALL ? CALL : TAIL_CALL;
+                        argA[pc] = unit.index(i);
+                        argB[pc] = function;
+                        break;
+                    case IR.RETURN:
+                        code[pc] = RETURN;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("The interpreter cannot run opcode " + op);
+                }
+                pc++;
+            }
+        }
+
+        ram = new short[HackCPU.RAM_SIZE];
+        returns = new int[64];
+        ram[0] = 256;
+        int entry = program.findSymbol(DeadFunctions.ENTRY);
+        if (entry != IR.NO_SYMBOL && functions.containsKey(entry)) {
+            // call Sys.init, returning past the end of the code
+            call(code.length, 0, functions.get(entry));
+        } else {
+            this.pc = 0;
+        }
+    }
+
+    private static long labelKey(int scope, int label) {
+        return (long) scope << 32 | (label & 0xffffffffL);
+    }
+
+    private static int target(Map<Long, Integer> labels, int scope, int label, Program program) {
+        Integer target = labels.get(labelKey(scope, label));
+        if (target == null) {
+            throw new IllegalArgumentException("Unknown label: " + program.symbolName(label));
+        }
+        return target;
+    }
+
+    /**
+     * this helper function decodes a push or a pop into an access through a base
+     * pointer or to a fixed address
+     */
+    private void decodePushPop(int pc, boolean push, IR unit, int i, Map<String, Integer> statics) {
+        int segment = unit.arg(i);
+        int index = unit.index(i);
+        switch (segment) {
+            case MappedParser.SEG_CONSTANT:
+                if (!push) {
+                    throw new IllegalArgumentException("Cannot pop to the constant segment in "
+                            + unit.getSource().getName() + " line " + unit.line(i));
+                }
+                code[pc] = PUSH_CONSTANT;
+                argB[pc] = index;
+                return;
+            case MappedParser.SEG_TEMP:
+                argB[pc] = 5 + index;
+                break;
+            case MappedParser.SEG_POINTER:
+                argB[pc] = 3 + index;
+                break;
+            case MappedParser.SEG_STATIC:
+                String name = unit.getName() + "." + index;
+                Integer address = statics.get(name);
+                if (address == null) {
+                    address = HackAssembler.VARIABLE_BASE + staticNames.size();
+                    statics.put(name, address);
+                    staticNames.add(name);
+                }
+                argB[pc] = address;
+                break;
+            default:
+                code[pc] = push ? PUSH_SEGMENT : POP_SEGMENT;
+                argA[pc] = BASE[segment];
+                argB[pc] = index;
+                return;
+        }
+        code[pc] = push ? PUSH_FIXED : POP_FIXED;
+    }
+
+    /**
+     * this method pushes the frame of a call like the translated code does:
+     * return address, LCL, ARG, THIS, THAT. the return address in the frame is
+     * the index of the next instruction, and the interpreter keeps it in a call
+     * stack of its own as well, since a word of RAM only holds 16 bits
+     */
+    private void call(int returnAddress, int nArgs, int function) {
+        short[] ram = this.ram;
+        int sp = ram[0];
+        ram[sp] = (short) returnAddress;
+        ram[sp + 1] = ram[1];
+        ram[sp + 2] = ram[2];
+        ram[sp + 3] = ram[3];
+        ram[sp + 4] = ram[4];
+        sp += 5;
+        ram[2] = (short) (sp - 5 - nArgs);
+        ram[1] = (short) sp;
+        ram[0] = (short) sp;
+        if (depth == returns.length) {
+            returns = Arrays.copyOf(returns, depth * 2);
+        }
+        returns[depth++] = returnAddress;
+        pc = function;
+    }
+
+    /**
+     * this method calls a function in the frame of the current one like the
+     * translated code does: the arguments are copied down to ARG, the frame of
+     * the current function is moved after them and the callee returns to the
+     * caller of the current function, so the call stack does not grow
+     */
+    private void tailCall(int nArgs, int function) {
+        short[] ram = this.ram;
+        int sp = ram[0];
+        int frame = ram[1];
+        int arg = ram[2];
+        short[] saved = Arrays.copyOfRange(ram, frame - 5, frame);
+        System.arraycopy(ram, sp - nArgs, ram, arg, nArgs);
+        System.arraycopy(saved, 0, ram, arg + nArgs, 5);
+        ram[1] = (short) (arg + nArgs + 5);
+        ram[0] = ram[1];
+        pc = function;
+    }
+
+    /**
+     * this method runs the program until it halts (a goto to itself, like
+     * "label END goto END"), the budget of steps is spent, the program runs past
+     * its last command (Sys.init returned) or a function returns with no caller
+     * (the code of a program without Sys.init, which starts at its first command)
+     *
+     * @param budget - the maximal number of vm commands to execute
+     * @return HALTED, BUDGET, END_OF_CODE or NO_CALLER
+     */
+    public int run(long budget) {
+        int[] code = this.code;
+        int[] argA = this.argA;
+        int[] argB = this.argB;
+        short[] ram = this.ram;
+        int status = BUDGET;
+        while (steps < budget) {
+            if (pc >= code.length) {
+                status = END_OF_CODE;
+                break;
+            }
+            int b = argB[pc];
+            int sp = ram[0];
+            steps++;
+            switch (code[pc]) {
+                case PUSH_CONSTANT:
+                    ram[sp] = (short) b;
+                    ram[0] = (short) (sp + 1);
+                    break;
+                case PUSH_SEGMENT:
+                    ram[sp] = ram[(ram[argA[pc]] + b) & 0x7fff];
+                    ram[0] = (short) (sp + 1);
+                    break;
+                case POP_SEGMENT:
+                    ram[(ram[argA[pc]] + b) & 0x7fff] = ram[sp - 1];
+                    ram[0] = (short) (sp - 1);
+                    break;
+                case PUSH_FIXED:
+                    ram[sp] = ram[b];
+                    ram[0] = (short) (sp + 1);
+                    break;
+                case POP_FIXED:
+                    ram[b] = ram[sp - 1];
+                    ram[0] = (short) (sp - 1);
+                    break;
+                case ADD:
+                    ram[sp - 2] = (short) (ram[sp - 2] + ram[sp - 1]);
+                    ram[0] = (short) (sp - 1);
+                    break;
+                case SUB:
+                    ram[sp - 2] = (short) (ram[sp - 2] - ram[sp - 1]);
+                    ram[0] = (short) (sp - 1);
+                    break;
+                case NEG:
+                    ram[sp - 1] = (short) -ram[sp - 1];
+                    break;
+                case EQ:
+                    ram[sp - 2] = (short) ((short) (ram[sp - 2] - ram[sp - 1]) == 0 ? -1 : 0);
+                    ram[0] = (short) (sp - 1);
+                    break;
+                case GT:
+                    ram[sp - 2] = (short) ((short) (ram[sp - 2] - ram[sp - 1]) > 0 ? -1 : 0);
+                    ram[0] = (short) (sp - 1);
+                    break;
+                case LT:
+                    ram[sp - 2] = (short) ((short) (ram[sp - 2] - ram[sp - 1]) < 0 ? -1 : 0);
+                    ram[0] = (short) (sp - 1);
+                    break;
+                case AND:
+                    ram[sp - 2] = (short) (ram[sp - 2] & ram[sp - 1]);
+                    ram[0] = (short) (sp - 1);
+                    break;
+                case OR:
+                    ram[sp - 2] = (short) (ram[sp - 2] | ram[sp - 1]);
+                    ram[0] = (short) (sp - 1);
+                    break;
+                case NOT:
+                    ram[sp - 1] = (short) ~ram[sp - 1];
+                    break;
+                case GOTO:
+                    if (b == pc) {
+                        return HALTED;
+                    }
+                    pc = b;
+                    continue;
+                case IF:
+                    ram[0] = (short) (sp - 1);
+                    if (ram[sp - 1] != 0) {
+                        pc = b;
+                        continue;
+                    }
+                    break;
+                case COMPARE_IF:
+                    ram[0] = (short) (sp - 2);
+                    if (compare(argA[pc], ram[sp - 2], ram[sp - 1])) {
+                        pc = b;
+                        continue;
+                    }
+                    break;
+                case FUNCTION:
+                    for (int i = argA[pc]; i > 0; i--) {
+                        ram[sp++] = 0;
+                    }
+                    ram[0] = (short) sp;
+                    break;
+                case CALL:
+                    call(pc + 1, argA[pc], b);
+                    continue;
+                case TAIL_CALL:
+                    tailCall(argA[pc], b);
+                    continue;
+                case RETURN:
+                    if (depth == 0) {
+                        return NO_CALLER;
+                    }
+                    int frame = ram[1];
+                    ram[ram[2]] = ram[sp - 1];
+                    ram[0] = (short) (ram[2] + 1);
+                    ram[4] = ram[frame - 1];
+                    ram[3] = ram[frame - 2];
+                    ram[2] = ram[frame - 3];
+                    ram[1] = ram[frame - 4];
+                    pc = returns[--depth];
+                    continue;
+            }
+            pc++;
+        }
+        return status;
+    }
+
+    /**
+     * @param kind - the comparison, with the negation in bit 8
+     * @param x
+     * @param y
+     * @return the condition of a fused comparison and if-goto, with the 16-bit
+     *         wraparound of the subtraction the translated code compares with
+     */
+    private static boolean compare(int kind, int x, int y) {
+        boolean result;
+        switch (kind & 0xff) {
+            case EQ:
+                result = (short) (x - y) == 0;
+                break;
+            case GT:
+                result = (short) (x - y) > 0;
+                break;
+            default:
+                result = (short) (x - y) < 0;
+                break;
+        }
+        return result != ((kind >> 8) != 0);
+    }
+
+    /**
+     * @return the number of vm commands executed
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * @param address
+     * @return the value of a memory word
+     */
+    public int peek(int address) {
+        return ram[address];
+    }
+
+    /**
+     * @return the names of the statics (File.i), the static at index i is at
+     *         address 16 + i
+     */
+    public List<String> getStaticNames() {
+        return staticNames;
+    }
+
+    /**
+     * @param from
+     * @param to
+     * @return a hash of the memory words in [from, to), the same as
+     *         HackCPU.checksum()
+     */
+    public int checksum(int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + ram[i];
+        }
+        return hash;
+    }
+
+    /**
+     * @param status
+     * @return the name of a status returned by run()
+     */
+    public static String statusName(int status) {
+        return status == HALTED ? "halted"
+                : status == BUDGET ? "budget exhausted"
+                : status == NO_CALLER ? "return without a caller" : "end of code";
+    }
+
+    /**
+     * this function loads vm files with the parser of the translator, runs the
+     * enabled passes and interprets the program, then prints the final state: the
+     * pointers, the stack, the statics and a checksum of the heap.
+     * usage: java VMInterpreter [translator options] [-steps n] <file.vm | directory>
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        long budget = 100_000_000L;
+        List<String> rest = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-steps") && i + 1 < args.length) {
+                budget = Long.parseLong(args[++i]);
+            } else {
+                rest.add(args[i]);
+            }
+        }
+        try {
+            Options options = Options.parse(rest.toArray(new String[0]));
+            PassManager passes = new PassManager();
+            passes.validate(options);
+            if (options.getPaths().isEmpty()) {
+                System.out.println("Error: No input file or directory provided");
+                return;
+            }
+            File input = new File(options.getPaths().get(0));
+            File[] vmFiles = input.isDirectory()
+                    ? input.listFiles((dir, name) -> name.toLowerCase().endsWith(".vm"))
+                    : new File[] { input };
+            if (vmFiles == null || vmFiles.length == 0 || !vmFiles[0].exists()) {
+                System.out.println("Error: file or directory not found");
+                return;
+            }
+            Arrays.sort(vmFiles, Comparator.comparing(File::getName));
+            Program program = new Program();
+            for (File vmFile : vmFiles) {
+                program.add(Main.read(vmFile, program, options));
+            }
+            passes.run(program, options);
+
+            VMInterpreter vm = new VMInterpreter(program);
+            long start = System.nanoTime();
+            int status = vm.run(budget);
+            long elapsed = System.nanoTime() - start;
+            System.out.println(String.format("Steps: %d (%s) in %.1f ms", vm.getSteps(), statusName(status),
+                    elapsed / 1e6));
+            System.out.println("SP: " + vm.peek(0) + " LCL: " + vm.peek(1) + " ARG: " + vm.peek(2) + " THIS: "
+                    + vm.peek(3) + " THAT: " + vm.peek(4));
+            StringBuilder stack = new StringBuilder();
+            for (int i = 256; i < vm.peek(0); i++) {
+                stack.append(i == 256 ? "" : " ").append(vm.peek(i));
+            }
+            System.out.println("Stack: [" + stack + "]");
+            StringBuilder statics = new StringBuilder();
+            for (int i = 0; i < vm.getStaticNames().size(); i++) {
+                statics.append(i == 0 ? "" : " ").append(vm.getStaticNames().get(i)).append('=')
+                        .append(vm.peek(HackAssembler.VARIABLE_BASE + i));
+            }
+            System.out.println("Statics: " + statics);
+            System.out.println("Heap checksum: "
+                    + Integer.toHexString(vm.checksum(HackCPU.HEAP_BASE, HackCPU.HEAP_END)));
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+        } catch (ArrayIndexOutOfBoundsException e) {
+            System.out.println("Error: The program accessed memory outside the RAM: " + e.getMessage());
+        }
+    }
+}
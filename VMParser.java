@@ -0,0 +1,50 @@
+import java.io.IOException;
+
+public interface VMParser {
+
+    /**
+     * checks if there are more commands in the vm file
+     * 
+     * @return true or false
+     * @throws IOException
+     */
+    boolean hasMoreLines() throws IOException;
+
+    /**
+     * this method moves to the next command.
+     * this method is called only if hasMoreLines() is true
+     * 
+     * @throws IOException
+     */
+    void advance() throws IOException;
+
+    /**
+     * @return the type of the current command
+     */
+    commandType commandType();
+
+    /**
+     * @return the first argument of the current command, or the command itself for
+     *         C_ARITHMETIC
+     */
+    String arg1();
+
+    /**
+     * @return the second argument of the current command.
+     *         Should be called if the current command is C_PUSH, C_POP, C_FUNCTION,
+     *         C_CALL.
+     */
+    int arg2();
+
+    /**
+     * @return the line number of the current command in the vm file
+     */
+    int lineNumber();
+
+    /**
+     * this method closes the vm file
+     * 
+     * @throws IOException
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,96 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * the workloads of the benchmarks. the translator is in the default package,
+ * which JMH benchmarks cannot be in or import from, so the benchmarks load this
+ * class by name once and only call the suppliers it returns
+ */
+public class BenchTargets {
+
+    /**
+     * @param vmFile
+     * @param mapped - MappedParser instead of Parser
+     * @return a workload that decodes every line of the file, without translating
+     */
+    public static LongSupplier parsing(File vmFile, boolean mapped) {
+        return () -> {
+            try {
+                VMParser parser = mapped ? new MappedParser(vmFile) : new Parser(vmFile);
+                long sum = 0;
+                while (parser.hasMoreLines()) {
+                    parser.advance();
+                    commandType type = parser.commandType();
+                    sum += type.ordinal();
+                    if (type != commandType.C_RETURN) {
+                        sum += parser.arg1().length();
+                    }
+                    if (type == commandType.C_PUSH || type == commandType.C_POP || type == commandType.C_FUNCTION
+                            || type == commandType.C_CALL) {
+                        sum += parser.arg2();
+                    }
+                }
+                parser.close();
+                return sum;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    /**
+     * @param vmFile
+     * @param peephole
+     * @return a workload that lowers the already parsed file through CodeWriter
+     *         into a buffer that is never written
+     * @throws IOException
+     */
+    public static LongSupplier lowering(File vmFile, boolean peephole) throws IOException {
+        Options options = new Options();
+        options.peephole = peephole;
+        Program program = new Program();
+        IR unit = Main.read(vmFile, program, options);
+        program.add(unit);
+        new PassManager().run(program, options);
+        AsmBuffer sink = new AsmBuffer();
+        return () -> {
+            sink.truncate(0);
+            Main.lower(unit, program, sink, options, new Stats());
+            return sink.length();
+        };
+    }
+
+    /**
+     * @param dir
+     * @param threads
+     * @param mapped
+     * @param peephole
+     * @return a workload that runs the whole translator on the directory, writing
+     *         the asm file. what Main prints is dropped
+     */
+    public static LongSupplier translation(File dir, int threads, boolean mapped, boolean peephole) {
+        List<String> args = new ArrayList<>();
+        args.add("-j");
+        args.add(Integer.toString(threads));
+        if (mapped) {
+            args.add("-mmap");
+        }
+        if (!peephole) {
+            args.add("-no-peephole");
+        }
+        args.add(dir.getPath());
+        String[] argv = args.toArray(new String[0]);
+        File outputFile = new File(dir, dir.getName() + ".asm");
+        PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+        return () -> {
+            Main.run(argv, null, nowhere);
+            return outputFile.length();
+        };
+    }
+}
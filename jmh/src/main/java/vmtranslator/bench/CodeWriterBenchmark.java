@@ -0,0 +1,56 @@
+package vmtranslator.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * emission alone: one generated file, parsed once, lowered through CodeWriter
+ * into a buffer that is never written
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodeWriterBenchmark {
+    @Param({ "16" })
+    public int megabytes;
+
+    @Param({ "false", "true" })
+    public boolean peephole;
+
+    private File dir;
+    private LongSupplier lower;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Workload.generate(megabytes, 1);
+        lower = Workload.target("lowering", new File(dir, "Class0.vm"), peephole);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Workload.delete(dir);
+    }
+
+    @Benchmark
+    public long emit() {
+        return lower.getAsLong();
+    }
+}
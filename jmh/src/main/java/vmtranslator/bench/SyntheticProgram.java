@@ -0,0 +1,115 @@
+package vmtranslator.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * a deterministic generator of large vm programs: the same size, number of files
+ * and seed always give the same files. every file is a class of functions with a
+ * mix of push, pop, arithmetic, branches and calls, like compiled Jack code
+ */
+public final class SyntheticProgram {
+    private static final String[] SEGMENTS = { "local", "argument", "static", "constant", "this", "that", "temp",
+            "pointer" };
+    private static final String[] ARITHMETIC = { "add", "sub", "neg", "eq", "gt", "lt", "and", "or", "not" };
+    private static final int FUNCTIONS_PER_FILE = 200;
+
+    private SyntheticProgram() {
+    }
+
+    /**
+     * this function writes Sys.vm and the given number of class files into a
+     * directory, about the given number of bytes in total
+     *
+     * @param dir
+     * @param totalBytes
+     * @param files
+     * @param seed
+     * @throws IOException
+     */
+    public static void generate(File dir, long totalBytes, int files, long seed) throws IOException {
+        Files.createDirectories(dir.toPath());
+        Random random = new Random(seed);
+        try (BufferedWriter out = Files.newBufferedWriter(new File(dir, "Sys.vm").toPath(), StandardCharsets.US_ASCII)) {
+            out.write("function Sys.init 0\ncall Class0.f0 0\npop temp 0\nlabel END\ngoto END\n");
+        }
+        long bytesPerFile = Math.max(1, totalBytes / files);
+        for (int file = 0; file < files; file++) {
+            File vmFile = new File(dir, "Class" + file + ".vm");
+            try (BufferedWriter out = Files.newBufferedWriter(vmFile.toPath(), StandardCharsets.US_ASCII)) {
+                long written = 0;
+                for (int function = 0; written < bytesPerFile; function++) {
+                    written += function(out, random, "Class" + file + ".f" + function, files);
+                }
+            }
+        }
+    }
+
+    private static long function(BufferedWriter out, Random random, String name, int files) throws IOException {
+        StringBuilder code = new StringBuilder();
+        int nVars = random.nextInt(4);
+        code.append("function ").append(name).append(' ').append(nVars).append('\n');
+        int labels = 0;
+        int length = 20 + random.nextInt(180);
+        for (int i = 0; i < length; i++) {
+            int kind = random.nextInt(100);
+            if (kind < 40) {
+                String segment = SEGMENTS[random.nextInt(SEGMENTS.length)];
+                code.append("push ").append(segment).append(' ').append(index(random, segment, nVars)).append('\n');
+            } else if (kind < 60) {
+                String segment = SEGMENTS[random.nextInt(SEGMENTS.length)];
+                if (segment.equals("constant")) {
+                    segment = "local";
+                }
+                code.append("pop ").append(segment).append(' ').append(index(random, segment, nVars)).append('\n');
+            } else if (kind < 80) {
+                code.append(ARITHMETIC[random.nextInt(ARITHMETIC.length)]).append('\n');
+            } else if (kind < 86 || labels == 0) {
+                code.append("label L").append(labels++).append('\n');
+            } else if (kind < 93) {
+                code.append(random.nextBoolean() ? "goto L" : "if-goto L").append(random.nextInt(labels)).append('\n');
+            } else {
+                code.append("call Class").append(random.nextInt(files)).append(".f")
+                        .append(random.nextInt(FUNCTIONS_PER_FILE)).append(' ').append(random.nextInt(4)).append('\n');
+            }
+        }
+        code.append("push constant 0\nreturn\n");
+        out.write(code.toString());
+        return code.length();
+    }
+
+    private static int index(Random random, String segment, int nVars) {
+        switch (segment) {
+            case "constant":
+                return random.nextInt(32768);
+            case "local":
+                return random.nextInt(Math.max(1, nVars));
+            case "static":
+                return random.nextInt(16);
+            case "pointer":
+                return random.nextInt(2);
+            default:
+                return random.nextInt(8);
+        }
+    }
+
+    /**
+     * usage: java -cp benchmarks.jar vmtranslator.bench.SyntheticProgram dir megabytes [files] [seed]
+     *
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Error: usage: SyntheticProgram <dir> <megabytes> [files] [seed]");
+            return;
+        }
+        int files = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        generate(new File(args[0]), Long.parseLong(args[1]) << 20, files, seed);
+    }
+}
@@ -0,0 +1,64 @@
+package vmtranslator.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * end to end: Main on a generated directory, from the vm files to the asm file
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TranslateBenchmark {
+    @Param({ "16" })
+    public int megabytes;
+
+    @Param({ "16" })
+    public int files;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    @Param({ "false", "true" })
+    public boolean mapped;
+
+    @Param({ "false", "true" })
+    public boolean peephole;
+
+    private File dir;
+    private LongSupplier translate;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Workload.generate(megabytes, files);
+        translate = Workload.target("translation", dir, threads, mapped, peephole);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Workload.delete(dir);
+    }
+
+    @Benchmark
+    public long processDir() {
+        return translate.getAsLong();
+    }
+}
@@ -0,0 +1,58 @@
+package vmtranslator.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+/**
+ * the generated program of a trial, and access to the workloads of BenchTargets
+ */
+final class Workload {
+    // the seed of every generated program, so all runs measure the same input
+    static final long SEED = 42;
+
+    private Workload() {
+    }
+
+    /**
+     * @param megabytes
+     * @param files
+     * @return a new temporary directory with a generated program
+     * @throws IOException
+     */
+    static File generate(int megabytes, int files) throws IOException {
+        File dir = Files.createTempDirectory("vmbench").resolve("Synthetic").toFile();
+        SyntheticProgram.generate(dir, (long) megabytes << 20, files, SEED);
+        return dir;
+    }
+
+    static void delete(File dir) throws IOException {
+        Path root = dir.toPath().getParent();
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * @param name - a factory of BenchTargets
+     * @param args
+     * @return the workload it returns
+     */
+    static LongSupplier target(String name, Object... args) {
+        try {
+            for (Method method : Class.forName("BenchTargets").getMethods()) {
+                if (method.getName().equals(name) && method.getParameterCount() == args.length) {
+                    return (LongSupplier) method.invoke(null, args);
+                }
+            }
+            throw new IllegalArgumentException("No workload " + name);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}